@@ -0,0 +1,159 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+/*Writes the files of a commit as a tar or zip archive, read straight from the stored files, so
+the working directory is not touched. Every file is copied through one buffer of BUFFER bytes,
+and chunked files one chunk at a time, so the memory used does not depend on the size of the
+files. The files are written in path order, with the time of the commit*/
+
+public class Archive {
+    private static final int BUFFER = 64 << 10;
+    private static final int TAR_BLOCK = 512;
+    private static final byte[] ZEROS = new byte[TAR_BLOCK];
+    // the biggest size the 11 octal digits of a tar header hold
+    private static final long MAX_TAR_SIZE = 077777777777L;
+
+    private final OutputStream out;
+    private final long time;
+    private final byte[] buffer = new byte[BUFFER];
+
+    private Archive(OutputStream out, long time) {
+        this.out = out;
+        this.time = time;
+    }
+
+    /* write the files (path -> location of the stored file) to out. The format is "tar" or
+    "zip". out is not closed */
+    public static void write(Map<String, String> files, long time, String format, OutputStream out)
+            throws IOException {
+        Archive archive = new Archive(out, time);
+        if ( format.equals("zip") ) {
+            archive.writeZip(files);
+        } else {
+            archive.writeTar(files);
+        }
+    }
+
+    private void writeZip(Map<String, String> files) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        for ( Map.Entry<String, String> e : files.entrySet() ) {
+            ZipEntry entry = new ZipEntry(e.getKey());
+            entry.setTime(time);
+            zip.putNextEntry(entry);
+            try (InputStream in = open(e.getValue())) {
+                copy(in, zip);
+            }
+            zip.closeEntry();
+        }
+        // finished but not closed, out can be stdout
+        zip.finish();
+        zip.flush();
+    }
+
+    private void writeTar(Map<String, String> files) throws IOException {
+        for ( Map.Entry<String, String> e : files.entrySet() ) {
+            String path = e.getKey();
+            long size = ChunkStore.isChunked(e.getValue()) ? ChunkStore.size(e.getValue())
+                : Gitlet.store(e.getValue()).length();
+            int mode = Gitlet.store(e.getValue()).canExecute() ? 0755 : 0644;
+            // a name or size that does not fit the header goes into a pax header before it
+            StringBuilder pax = new StringBuilder();
+            if ( path.getBytes(StandardCharsets.UTF_8).length > 100 ) {
+                pax.append(paxRecord("path", path));
+            }
+            if ( size > MAX_TAR_SIZE ) {
+                pax.append(paxRecord("size", String.valueOf(size)));
+            }
+            if ( pax.length() > 0 ) {
+                byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(tarHeader("PaxHeader", records.length, 0644, 'x'));
+                out.write(records);
+                pad(records.length);
+            }
+            out.write(tarHeader(path, Math.min(size, MAX_TAR_SIZE), mode, '0'));
+            long written;
+            try (InputStream in = open(e.getValue())) {
+                written = copy(in, out);
+            }
+            if ( written != size ) {
+                throw new IOException("The stored file of <" + path + "> changed size");
+            }
+            pad(size);
+        }
+        // two empty blocks end the archive
+        out.write(ZEROS);
+        out.write(ZEROS);
+        out.flush();
+    }
+
+    private byte[] tarHeader(String path, long size, int mode, char type) {
+        byte[] header = new byte[TAR_BLOCK];
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, time / 1000);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        // the checksum is computed with its own field as spaces
+        for ( int i = 148; i < 156; i++ ) {
+            header[i] = ' ';
+        }
+        long sum = 0;
+        for ( byte b : header ) {
+            sum += b & 0xff;
+        }
+        octal(header, 148, 7, sum);
+        return header;
+    }
+
+    /* "<length> <key>=<value>\n", where the length is in bytes and counts itself */
+    private static String paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + String.valueOf(body).length();
+        if ( String.valueOf(length).length() != String.valueOf(body).length() ) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static void octal(byte[] header, int offset, int width, long value) {
+        String digits = Long.toOctalString(value);
+        int start = offset + width - 1 - digits.length();
+        for ( int i = offset; i < start; i++ ) {
+            header[i] = '0';
+        }
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, start, digits.length());
+        header[offset + width - 1] = 0;
+    }
+
+    /* fill the last block of an entry with zeros */
+    private void pad(long size) throws IOException {
+        int rest = (int) (size % TAR_BLOCK);
+        if ( rest != 0 ) {
+            out.write(ZEROS, 0, TAR_BLOCK - rest);
+        }
+    }
+
+    private static InputStream open(String location) throws IOException {
+        return ChunkStore.isChunked(location) ? ChunkStore.open(location) : new FileInputStream(Gitlet.store(location));
+    }
+
+    private long copy(InputStream in, OutputStream to) throws IOException {
+        long total = 0;
+        int n;
+        while ( (n = in.read(buffer)) > 0 ) {
+            to.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+}
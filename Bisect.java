@@ -0,0 +1,126 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+/*The state of a bisect between two commands, kept in .gitlet/bisect as one "<key> <value>"
+line each: the branch and commit it started from, the bad commit, the good and skipped ones,
+the steps taken so far, and the commit the working files were last switched to. That one is
+saved at every step, while the head in git.ser is only saved at the end of the command, so
+an interrupted bisect run still knows what is checked out. Commits are kept by hash, since
+gc renumbers them. History has
+one parent per commit, so the commits still suspected are the parent chain of the bad commit
+down to the first commit a good one descends from, and every step checks out the middle one*/
+
+public class Bisect {
+    static final String FILE = Gitlet.GITLET_DIR + "bisect";
+
+    String branch;
+    String start;
+    String bad;
+    String current;
+    final ArrayList<String> good = new ArrayList<String>();
+    final ArrayList<String> skipped = new ArrayList<String>();
+    // the commits checked out, the files they rewrote, and when the bisect started
+    int steps = 0;
+    long files = 0;
+    long startTime;
+
+    Bisect(String branch, String start) {
+        this.branch = branch;
+        this.start = start;
+        this.current = start;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /* the bisect in progress, or null */
+    public static Bisect load() throws IOException {
+        File file = new File(FILE);
+        if ( !file.exists() ) {
+            return null;
+        }
+        Bisect b = new Bisect(null, null);
+        for ( String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8) ) {
+            int space = line.indexOf(' ');
+            if ( space < 0 ) {
+                continue;
+            }
+            String key = line.substring(0, space);
+            String value = line.substring(space + 1);
+            if ( key.equals("branch") ) {
+                b.branch = value;
+            } else if ( key.equals("start") ) {
+                b.start = value;
+            } else if ( key.equals("current") ) {
+                b.current = value;
+            } else if ( key.equals("bad") ) {
+                b.bad = value;
+            } else if ( key.equals("good") ) {
+                b.good.add(value);
+            } else if ( key.equals("skip") ) {
+                b.skipped.add(value);
+            } else if ( key.equals("steps") ) {
+                b.steps = Integer.parseInt(value);
+            } else if ( key.equals("files") ) {
+                b.files = Long.parseLong(value);
+            } else if ( key.equals("time") ) {
+                b.startTime = Long.parseLong(value);
+            }
+        }
+        return b;
+    }
+
+    public void save() throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("branch ").append(branch).append('\n');
+        out.append("start ").append(start).append('\n');
+        out.append("current ").append(current).append('\n');
+        if ( bad != null ) {
+            out.append("bad ").append(bad).append('\n');
+        }
+        for ( String hash : good ) {
+            out.append("good ").append(hash).append('\n');
+        }
+        for ( String hash : skipped ) {
+            out.append("skip ").append(hash).append('\n');
+        }
+        out.append("steps ").append(steps).append('\n');
+        out.append("files ").append(files).append('\n');
+        out.append("time ").append(startTime).append('\n');
+        Files.write(new File(FILE).toPath(), out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void clear() throws IOException {
+        Files.deleteIfExists(new File(FILE).toPath());
+    }
+
+    /* the commits that can still be the first bad one, from the bad commit back to its oldest
+    ancestor that no good commit descends from */
+    public static List<Integer> suspects(CommitGraph graph, int bad, List<Integer> good) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for ( int id = bad; id >= 0; id = graph.parent(id) ) {
+            for ( int g : good ) {
+                if ( graph.isAncestor(id, g) ) {
+                    return result;
+                }
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /* the suspect to test next: the one nearest the middle that was not skipped, or -1 when
+    only the bad commit and skipped ones are left */
+    public static int next(List<Integer> suspects, List<Integer> skipped) {
+        int middle = suspects.size() / 2;
+        for ( int d = 0; d < suspects.size(); d++ ) {
+            for ( int i : new int[] { middle - d, middle + d } ) {
+                if ( i > 0 && i < suspects.size() && !skipped.contains(suspects.get(i)) ) {
+                    return suspects.get(i);
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Random;
+/*Storage of big files as content defined chunks. The cut points are found with a gear rolling
+hash (FastCDC), so an edit only changes the chunks around it and all the other chunks are
+shared with the older versions. Chunks are saved once under .gitlet/chunks/<hash>. The stored
+file of a chunked version is a small list of its chunks, with the CHUNKED_SUFFIX*/
+
+public class ChunkStore {
+    static final String CHUNK_DIR = ".gitlet/chunks/";
+    static final String CHUNKED_SUFFIX = ".gitlet-chunks";
+    // files of this size or bigger are chunked
+    static final long THRESHOLD = 1 << 20;
+    private static final String MAGIC = "gitlet-chunks 1";
+
+    private static final int MIN_SIZE = 16 << 10;
+    private static final int AVG_SIZE = 64 << 10;
+    private static final int MAX_SIZE = 256 << 10;
+    // the hash is shifted left, so its high bits cover the last 64 bytes. Before the average
+    // size a cut needs 18 zero bits, after it 14, which keeps the sizes close to the average
+    private static final long MASK_SMALL = 0xFFFFC00000000000L;
+    private static final long MASK_LARGE = 0xFFFC000000000000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // a fixed seed, the cut points must be the same on every run
+        Random random = new Random(0x6769746c6574L);
+        for ( int i = 0; i < GEAR.length; i++ ) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /* whether the stored file at the location is a list of chunks */
+    public static boolean isChunked(String location) {
+        if ( !location.endsWith(CHUNKED_SUFFIX) ) {
+            return false;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(Gitlet.store(location)), StandardCharsets.UTF_8))) {
+            return MAGIC.equals(in.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /* split src into chunks, save the new ones and write the list of chunks to dest. Returns
+    the SHA-1 of the whole file, which is computed in the same pass */
+    public static String store(File src, File dest) throws IOException {
+        MessageDigest whole = Gitlet.newDigest();
+        ArrayList<String> list = new ArrayList<String>();
+        byte[] chunk = new byte[MAX_SIZE];
+        byte[] block = new byte[1 << 16];
+        int len = 0;
+        long h = 0;
+        try (InputStream in = new FileInputStream(src)) {
+            int n;
+            while ( (n = in.read(block)) > 0 ) {
+                whole.update(block, 0, n);
+                for ( int i = 0; i < n; i++ ) {
+                    chunk[len++] = block[i];
+                    if ( len < MIN_SIZE ) {
+                        continue;
+                    }
+                    h = (h << 1) + GEAR[block[i] & 0xff];
+                    long mask = len < AVG_SIZE ? MASK_SMALL : MASK_LARGE;
+                    if ( (h & mask) == 0 || len >= MAX_SIZE ) {
+                        list.add(saveChunk(chunk, len) + " " + len);
+                        len = 0;
+                        h = 0;
+                    }
+                }
+            }
+        }
+        if ( len > 0 ) {
+            list.add(saveChunk(chunk, len) + " " + len);
+        }
+        File parent = dest.getParentFile();
+        if ( parent != null ) {
+            Files.createDirectories(parent.toPath());
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(dest), StandardCharsets.UTF_8)) {
+            out.write(MAGIC + "\n");
+            for ( String line : list ) {
+                out.write(line + "\n");
+            }
+        }
+        return Gitlet.toHex(whole.digest());
+    }
+
+    private static String saveChunk(byte[] chunk, int len) throws IOException {
+        MessageDigest digest = Gitlet.newDigest();
+        digest.update(chunk, 0, len);
+        String hash = Gitlet.toHex(digest.digest());
+        File file = chunkFile(hash);
+        if ( !file.exists() ) {
+            Files.createDirectories(file.getParentFile().toPath());
+            // several commit workers can write the same chunk, each one writes its own copy
+            File tmp = File.createTempFile(hash, ".tmp", file.getParentFile());
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(chunk, 0, len);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return hash;
+    }
+
+    static File chunkFile(String hash) {
+        return Gitlet.store(CHUNK_DIR + hash.substring(0, 2) + "/" + hash.substring(2));
+    }
+
+    /* the chunk hashes listed in the stored file, in order */
+    public static ArrayList<String> chunks(String location) throws IOException {
+        ArrayList<String> hashes = new ArrayList<String>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(Gitlet.store(location)), StandardCharsets.UTF_8))) {
+            String line = in.readLine();
+            while ( (line = in.readLine()) != null ) {
+                if ( !line.isEmpty() ) {
+                    hashes.add(line.substring(0, line.indexOf(' ')));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /* the size of a chunked file, the sum of the chunk sizes in the list */
+    public static long size(String location) throws IOException {
+        long size = 0;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(Gitlet.store(location)), StandardCharsets.UTF_8))) {
+            String line = in.readLine();
+            while ( (line = in.readLine()) != null ) {
+                if ( !line.isEmpty() ) {
+                    size += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+                }
+            }
+        }
+        return size;
+    }
+
+    /* the content of a chunked file, read one chunk after the other */
+    public static InputStream open(String location) throws IOException {
+        final ArrayList<String> hashes = chunks(location);
+        Enumeration<InputStream> streams = new Enumeration<InputStream>() {
+            private int next = 0;
+
+            public boolean hasMoreElements() {
+                return next < hashes.size();
+            }
+
+            public InputStream nextElement() {
+                try {
+                    return new FileInputStream(chunkFile(hashes.get(next++)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Missing chunk <" + hashes.get(next - 1) + ">", e);
+                }
+            }
+        };
+        if ( hashes.isEmpty() ) {
+            streams = Collections.enumeration(new ArrayList<InputStream>());
+        }
+        return new SequenceInputStream(streams);
+    }
+}
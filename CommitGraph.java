@@ -0,0 +1,183 @@
+import java.util.Arrays;
+import java.util.List;
+/*The shape of the commit history in primitive arrays: the parent, depth and time of every
+commit, and the children in CSR layout (the children of c are childList[childStart[c]] up to
+childList[childStart[c + 1] - 1]). It is built in one pass over the commit list and takes about
+28 bytes per commit. The walks below only read the arrays and do not allocate. A sorted index
+of the commit hashes is added on the first prefix lookup*/
+
+public class CommitGraph {
+    private final int[] parent; // -1 for the initial commit
+    private final int[] depth; // number of commits on the parent chain
+    private final long[] time; // commit time in milliseconds
+    private final int[] childStart;
+    private final int[] childList;
+    private final List<CommitNode> commits;
+    // the first 64 bits of every commit hash in increasing (unsigned) order, and the commit of
+    // each. Built on the first prefix lookup
+    private long[] hashKeys;
+    private int[] hashIds;
+
+    /* the commit ids must be the positions in the list, and a parent always comes before its
+    children, which holds since ids are given in commit order */
+    public CommitGraph(List<CommitNode> commits) {
+        int n = commits.size();
+        this.commits = commits;
+        parent = new int[n];
+        depth = new int[n];
+        time = new long[n];
+        childStart = new int[n + 1];
+        for ( int id = 0; id < n; id++ ) {
+            CommitNode node = commits.get(id);
+            int p = node.parentId;
+            parent[id] = p == id || p < 0 ? -1 : p;
+            depth[id] = parent[id] < 0 ? 0 : depth[parent[id]] + 1;
+            time[id] = node.time;
+            if ( parent[id] >= 0 ) {
+                childStart[parent[id] + 1]++;
+            }
+        }
+        for ( int id = 0; id < n; id++ ) {
+            childStart[id + 1] += childStart[id];
+        }
+        childList = new int[childStart[n]];
+        int[] next = new int[n];
+        for ( int id = 0; id < n; id++ ) {
+            int p = parent[id];
+            if ( p >= 0 ) {
+                childList[childStart[p] + next[p]++] = id;
+            }
+        }
+    }
+
+    public int size() {
+        return parent.length;
+    }
+
+    /* the parent of the commit, or -1 for the initial commit */
+    public int parent(int id) {
+        return parent[id];
+    }
+
+    public int depth(int id) {
+        return depth[id];
+    }
+
+    public long time(int id) {
+        return time[id];
+    }
+
+    public int childCount(int id) {
+        return childStart[id + 1] - childStart[id];
+    }
+
+    /* the i-th child of the commit, in commit order */
+    public int child(int id, int i) {
+        return childList[childStart[id] + i];
+    }
+
+    /* whether a is on the parent chain of b, or is b itself */
+    public boolean isAncestor(int a, int b) {
+        while ( depth[b] > depth[a] ) {
+            b = parent[b];
+        }
+        return a == b;
+    }
+
+    /* the latest commit that is an ancestor of both, the split point of a merge */
+    public int mergeBase(int a, int b) {
+        while ( depth[a] > depth[b] ) {
+            a = parent[a];
+        }
+        while ( depth[b] > depth[a] ) {
+            b = parent[b];
+        }
+        while ( a != b ) {
+            a = parent[a];
+            b = parent[b];
+        }
+        return a;
+    }
+
+    /* the commits whose hash starts with the hex prefix. Two binary searches over the sorted
+    hash keys give the range of candidates, which are then checked against the whole hash */
+    public int[] withPrefix(String prefix) {
+        prefix = prefix.toLowerCase();
+        if ( hashKeys == null ) {
+            buildHashIndex();
+        }
+        String head = prefix.length() > 16 ? prefix.substring(0, 16) : prefix;
+        long low;
+        try {
+            low = Long.parseUnsignedLong(head, 16) << (4 * (16 - head.length()));
+        } catch (NumberFormatException e) {
+            return new int[0];
+        }
+        long high = head.length() == 16 ? low : low | (-1L >>> (4 * head.length()));
+        int from = lowerBound(low ^ Long.MIN_VALUE);
+        int to = lowerBound(high ^ Long.MIN_VALUE);
+        while ( to < hashKeys.length && hashKeys[to] == (high ^ Long.MIN_VALUE) ) {
+            to++;
+        }
+        int count = 0;
+        int[] found = new int[to - from];
+        for ( int i = from; i < to; i++ ) {
+            if ( commits.get(hashIds[i]).hash.startsWith(prefix) ) {
+                found[count++] = hashIds[i];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // first index whose key is not below the given key. Keys have their sign bit flipped, so
+    // the signed order is the unsigned order of the hashes
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = hashKeys.length;
+        while ( lo < hi ) {
+            int mid = (lo + hi) >>> 1;
+            if ( hashKeys[mid] < key ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void buildHashIndex() {
+        int n = commits.size();
+        long[] keys = new long[n];
+        int[] ids = new int[n];
+        for ( int id = 0; id < n; id++ ) {
+            keys[id] = Long.parseUnsignedLong(commits.get(id).hash.substring(0, 16), 16) ^ Long.MIN_VALUE;
+            ids[id] = id;
+        }
+        sort(keys, ids, new long[n], new int[n], 0, n);
+        hashKeys = keys;
+        hashIds = ids;
+    }
+
+    // merge sort of the keys, moving the ids along
+    private static void sort(long[] keys, int[] ids, long[] tmpKeys, int[] tmpIds, int from, int to) {
+        if ( to - from < 2 ) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(keys, ids, tmpKeys, tmpIds, from, mid);
+        sort(keys, ids, tmpKeys, tmpIds, mid, to);
+        int i = from;
+        int j = mid;
+        for ( int k = from; k < to; k++ ) {
+            if ( j >= to || (i < mid && keys[i] <= keys[j]) ) {
+                tmpKeys[k] = keys[i];
+                tmpIds[k] = ids[i++];
+            } else {
+                tmpKeys[k] = keys[j];
+                tmpIds[k] = ids[j++];
+            }
+        }
+        System.arraycopy(tmpKeys, from, keys, from, to - from);
+        System.arraycopy(tmpIds, from, ids, from, to - from);
+    }
+}
@@ -1,49 +1,76 @@
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
 import java.util.ArrayList;
-/*Commit class node of the tree*/
+/*Commit class node of the tree. The links between commits are only the parent ids, the
+children and the branches of a commit come from the CommitGraph*/
 
 public class CommitNode implements Serializable {
     int commitId, parentId;
-    String commitMessage, folderPath;
-    ArrayList<CommitNode> childs;
-    String time;
-    HashSet<String> inBranch;
-    HashMap<String, String> addressBook; // key: fileName value: path of the file
-
-    public CommitNode(int commitId, int parentId, String commitMessage,
-            String folderPath, String time) {
+    String commitMessage;
+    long time; // commit time in milliseconds
+    String treeHash; // hash of the root tree of this commit
+    String hash; // id of the commit that is the same in every repository, see computeHash()
+    long[] changedPaths; // bloom filter of the paths changed since the parent, see PathBloom
+    // flat view of the tree, not saved in git.ser. Use getAddressBook() / getHashBook()
+    transient Manifest manifest;
+
+    public CommitNode(int commitId, int parentId, String commitMessage, long time) {
         this.commitId = commitId;
         this.parentId = parentId;
-        this.commitMessage = commitMessage;
-        this.folderPath = folderPath;
+        // the same message is kept once, and saved once in git.ser
+        this.commitMessage = commitMessage.intern();
         this.time = time;
-        this.addressBook = new HashMap<String, String>();
-        this.inBranch = new HashSet<String>();
-        this.childs = new ArrayList<CommitNode>();
     }
 
-    public CommitNode(String time) {
+    public CommitNode(long time) {
     	// this node is used for git init
         this.commitId = 0;
         this.parentId = 0;
         this.commitMessage = "initial commit";
         this.time = time;
-        this.addressBook = new HashMap<String, String>();
-        this.inBranch = new HashSet<String>();
-        this.inBranch.add("master");
-        this.childs = new ArrayList<CommitNode>();
+        this.treeHash = Tree.EMPTY;
+        this.changedPaths = PathBloom.build(new ArrayList<String>());
+        // hashed without the init time, so every repository starts from the same commit
+        this.hash = computeHash(null, 0);
+    }
+
+    /* SHA-1 over the tree, the hash of the parent, the time and the message, like a git commit
+    object. It does not depend on the position of the commit in the commit list, so two
+    repositories can create commits without agreeing on numbers first */
+    public String computeHash(String parentHash) {
+        return computeHash(parentHash, time);
+    }
+
+    private String computeHash(String parentHash, long time) {
+        MessageDigest digest = Gitlet.newDigest();
+        StringBuilder sb = new StringBuilder();
+        sb.append("tree ").append(treeHash).append('\n');
+        if ( parentHash != null ) {
+            sb.append("parent ").append(parentHash).append('\n');
+        }
+        sb.append("time ").append(time).append('\n').append('\n').append(commitMessage);
+        digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return Gitlet.toHex(digest.digest());
+    }
+
+    /* key: fileName value: path of the stored file */
+    public Map<String, String> getAddressBook() {
+        return getManifest().locations();
     }
 
-    public CommitNode(CommitNode cn) {
-        this.commitId = cn.commitId;
-        this.parentId = -1;
-        
+    /* key: fileName value: SHA-1 of the file content */
+    public Map<String, String> getHashBook() {
+        return getManifest().hashes();
     }
 
-    public void addChild(CommitNode x) {
-        (this.childs).add(x);
+    // the manifest is only built from the tree objects when somebody asks for it
+    public Manifest getManifest() {
+        if ( manifest == null ) {
+            manifest = new Manifest(treeHash);
+        }
+        return manifest;
     }
 
 }
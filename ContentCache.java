@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+/*Least recently used cache of file contents and of their lines, keyed by the content hash.
+A hash always stands for the same content, so the cache never has to be invalidated and is
+kept for the whole life of the JVM: across the commands of a batch, and across the commands
+of a program that calls Gitlet.main many times. The cache holds at most LIMIT bytes, counted
+from the size of the content and of the lines; bigger files than a quarter of it are read but
+not kept. The returned arrays and lists are shared and must not be changed*/
+
+public class ContentCache {
+    // can be set with -Dgitlet.cache.bytes=<bytes>
+    static final long LIMIT = Long.getLong("gitlet.cache.bytes", 64L << 20);
+
+    private static class Entry {
+        final byte[] content;
+        List<String> lines;
+        long size;
+
+        Entry(byte[] content) {
+            this.content = content;
+            this.size = content.length + 64;
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private static long size = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    /* the content of the version with the given hash, read from the stored file at the
+    location if it is not cached */
+    public static synchronized byte[] bytes(String hash, String location) throws IOException {
+        return entry(hash, location).content;
+    }
+
+    /* the lines of the version, see LineDiff.lines */
+    public static synchronized List<String> lines(String hash, String location) throws IOException {
+        Entry entry = entry(hash, location);
+        if ( entry.lines == null ) {
+            entry.lines = Collections.unmodifiableList(LineDiff.lines(entry.content));
+            long linesSize = 0;
+            for ( String line : entry.lines ) {
+                // the string, its chars and the slot in the list
+                linesSize += 48 + 2L * line.length();
+            }
+            if ( entries.get(hash) == entry ) {
+                entry.size += linesSize;
+                size += linesSize;
+                trim();
+            }
+        }
+        return entry.lines;
+    }
+
+    private static Entry entry(String hash, String location) throws IOException {
+        Entry entry = entries.get(hash);
+        if ( entry != null ) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        entry = new Entry(Gitlet.readStored(location));
+        if ( entry.size <= LIMIT / 4 ) {
+            entries.put(hash, entry);
+            size += entry.size;
+            trim();
+        }
+        return entry;
+    }
+
+    /* drop the least recently used entries until the cache fits its limit */
+    private static void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ( size > LIMIT && it.hasNext() ) {
+            size -= it.next().getValue().size;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public static synchronized String stats() {
+        long lookups = hits + misses;
+        return "Content cache: " + entries.size() + " versions, " + size + " of " + LIMIT + " bytes, "
+            + hits + " hits, " + misses + " misses"
+            + (lookups == 0 ? "" : " (" + (100 * hits / lookups) + "% hits)") + ", " + evictions + " evictions";
+    }
+}
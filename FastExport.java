@@ -0,0 +1,136 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+/*Writes commits as a git fast-import stream. The commits are written in the order of the
+commit list, which has every parent before its children, and each one only lists the files
+that changed since its parent, found with a tree diff. A version of a file is written once
+as a blob, the first time a commit needs it, and later commits point at its mark. The
+initial commit of Gitlet has no files, so the commits after it are written without a parent,
+and FastImport puts them back on the initial commit of the repository it reads into*/
+
+public class FastExport {
+    private static final int BUFFER = 64 << 10;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER];
+    // content hash -> mark of the blob, and commit id -> mark of the commit
+    private final HashMap<String, Integer> blobMarks = new HashMap<String, Integer>();
+    private final HashMap<Integer, Integer> commitMarks = new HashMap<Integer, Integer>();
+    private int nextMark = 1;
+    private int blobs = 0;
+
+    private FastExport(OutputStream out) {
+        this.out = out;
+    }
+
+    /* write every commit the branches (name -> head) reach, then point the branches at
+    their heads. out is not closed. Returns {commits, blobs} written */
+    public static int[] write(List<CommitNode> commits, CommitGraph graph, Map<String, CommitNode> branches,
+            OutputStream out) throws IOException {
+        FastExport export = new FastExport(out);
+        TreeMap<String, CommitNode> sorted = new TreeMap<String, CommitNode>(branches);
+        // the branch a commit is written on is the first one, by name, that has it
+        String[] refs = new String[commits.size()];
+        for ( Map.Entry<String, CommitNode> e : sorted.entrySet() ) {
+            for ( int id = e.getValue().commitId; id > 0 && refs[id] == null; id = graph.parent(id) ) {
+                refs[id] = e.getKey();
+            }
+        }
+        int written = 0;
+        for ( CommitNode node : commits ) {
+            if ( node.commitId > 0 && refs[node.commitId] != null ) {
+                export.writeCommit(node, commits.get(Math.max(graph.parent(node.commitId), 0)), refs[node.commitId]);
+                written++;
+            }
+        }
+        for ( Map.Entry<String, CommitNode> e : sorted.entrySet() ) {
+            if ( e.getValue().commitId > 0 ) {
+                export.print("reset refs/heads/" + e.getKey() + "\n");
+                export.print("from :" + export.commitMarks.get(e.getValue().commitId) + "\n\n");
+            }
+        }
+        out.flush();
+        return new int[] { written, export.blobs };
+    }
+
+    private void writeCommit(CommitNode node, CommitNode parent, String branch) throws IOException {
+        List<Tree.Change> changes = Tree.diff(parent.treeHash, node.treeHash);
+        for ( Tree.Change c : changes ) {
+            if ( c.after != null && !blobMarks.containsKey(c.after[0]) ) {
+                writeBlob(c.after[0], c.after[1]);
+            }
+        }
+        int mark = nextMark++;
+        commitMarks.put(node.commitId, mark);
+        byte[] message = node.commitMessage.getBytes(StandardCharsets.UTF_8);
+        print("commit refs/heads/" + branch + "\n");
+        print("mark :" + mark + "\n");
+        print("committer Gitlet <gitlet@localhost> " + (node.time / 1000) + " +0000\n");
+        print("data " + message.length + "\n");
+        out.write(message);
+        print("\n");
+        if ( parent.commitId > 0 ) {
+            print("from :" + commitMarks.get(parent.commitId) + "\n");
+        }
+        for ( Tree.Change c : changes ) {
+            if ( c.after == null ) {
+                print("D " + quote(c.path) + "\n");
+            } else {
+                String mode = Gitlet.store(c.after[1]).canExecute() ? "100755" : "100644";
+                print("M " + mode + " :" + blobMarks.get(c.after[0]) + " " + quote(c.path) + "\n");
+            }
+        }
+        print("\n");
+    }
+
+    /* the content is copied from the stored file, one buffer at a time */
+    private void writeBlob(String hash, String location) throws IOException {
+        int mark = nextMark++;
+        blobMarks.put(hash, mark);
+        blobs++;
+        long size = ChunkStore.isChunked(location) ? ChunkStore.size(location) : Gitlet.store(location).length();
+        print("blob\nmark :" + mark + "\ndata " + size + "\n");
+        long written = 0;
+        try (InputStream in = ChunkStore.isChunked(location) ? ChunkStore.open(location)
+                : new FileInputStream(Gitlet.store(location))) {
+            int n;
+            while ( (n = in.read(buffer)) > 0 ) {
+                out.write(buffer, 0, n);
+                written += n;
+            }
+        }
+        if ( written != size ) {
+            throw new IOException("The stored file <" + location + "> changed size");
+        }
+        print("\n");
+    }
+
+    private void print(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* a path with a quote, a backslash or a line break is written as a C style string */
+    static String quote(String path) {
+        if ( path.indexOf('"') < 0 && path.indexOf('\\') < 0 && path.indexOf('\n') < 0 ) {
+            return path;
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for ( int i = 0; i < path.length(); i++ ) {
+            char c = path.charAt(i);
+            if ( c == '"' || c == '\\' ) {
+                sb.append('\\').append(c);
+            } else if ( c == '\n' ) {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,421 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+/*Reads a git fast-import stream into the commit list, in one pass and in one process, so the
+state is read and saved once for the whole history. A blob is streamed to a file under
+.gitlet/import while its hash is computed, and is moved, not copied, into the folder of the
+first commit that uses it; a version already stored is never stored twice, whatever its
+path. Each commit is only the changes to the tree of its parent (Tree.update), so unchanged
+directories are shared. Supported: blob, commit (M, D, C, R, deleteall), reset, tag and
+progress, which are skipped or printed, and feature, option, checkpoint and done. Gitlet
+commits have one parent, so the merge lines of a commit are read but only from is kept*/
+
+public class FastImport {
+    static final String IMPORT_DIR = Gitlet.GITLET_DIR + "import/";
+    private static final int BUFFER = 64 << 10;
+
+    private final ArrayList<CommitNode> commits;
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER];
+    private String peeked;
+    // mark -> content hash of a blob, mark -> id of a commit
+    private final HashMap<Integer, String> blobMarks = new HashMap<Integer, String>();
+    private final HashMap<Integer, Integer> commitMarks = new HashMap<Integer, Integer>();
+    // content hash -> the blob file not stored yet, or its stored location
+    private final HashMap<String, File> waiting = new HashMap<String, File>();
+    private final HashMap<String, String> stored = new HashMap<String, String>();
+    // content hash -> true for the versions imported with an executable mode
+    private final HashMap<String, Boolean> executable = new HashMap<String, Boolean>();
+    // ref -> commit id of its head, starting with the branches of the repository
+    final TreeMap<String, Integer> tips = new TreeMap<String, Integer>();
+    int imported = 0;
+    int blobs = 0;
+
+    public FastImport(ArrayList<CommitNode> commits, Map<String, CommitNode> branches, InputStream in) {
+        this.commits = commits;
+        this.in = new BufferedInputStream(in, BUFFER);
+        for ( Map.Entry<String, CommitNode> e : branches.entrySet() ) {
+            tips.put("refs/heads/" + e.getKey(), e.getValue().commitId);
+        }
+    }
+
+    /* the name of the branch for a ref, refs/heads/ taken off, or null for the other refs,
+    such as tags, which Gitlet does not have */
+    static String branchName(String ref) {
+        return ref.startsWith("refs/heads/") ? ref.substring("refs/heads/".length()) : null;
+    }
+
+    /* read the whole stream. The blobs that no commit used are removed at the end */
+    public void run() throws IOException {
+        Files.createDirectories(Gitlet.store(IMPORT_DIR).toPath());
+        try {
+            String line;
+            while ( (line = next()) != null ) {
+                if ( line.isEmpty() || line.startsWith("#") || line.startsWith("feature ")
+                        || line.startsWith("option ") || line.equals("checkpoint") ) {
+                    continue;
+                } else if ( line.equals("done") ) {
+                    break;
+                } else if ( line.equals("blob") ) {
+                    readBlob();
+                } else if ( line.startsWith("commit ") ) {
+                    readCommit(line.substring("commit ".length()));
+                } else if ( line.startsWith("reset ") ) {
+                    String ref = line.substring("reset ".length());
+                    String from = peek() != null && peek().startsWith("from ") ? next() : null;
+                    if ( from == null ) {
+                        // the next commit on the ref starts a new history
+                        tips.remove(ref);
+                    } else {
+                        tips.put(ref, commit(from.substring("from ".length())));
+                    }
+                } else if ( line.startsWith("tag ") ) {
+                    // Gitlet has no tags
+                    String header = next();
+                    while ( header != null && !header.startsWith("data ") ) {
+                        header = next();
+                    }
+                    readData(header == null ? "" : header, null);
+                } else if ( line.startsWith("progress ") ) {
+                    System.out.println(line.substring("progress ".length()));
+                } else {
+                    throw new IOException("Unsupported command <" + line + ">");
+                }
+            }
+        } finally {
+            for ( File f : waiting.values() ) {
+                f.delete();
+            }
+            Gitlet.store(IMPORT_DIR).delete();
+        }
+    }
+
+    private void readBlob() throws IOException {
+        int mark = readMark();
+        String line = next();
+        if ( line.startsWith("original-oid ") ) {
+            line = next();
+        }
+        String hash = readBlobData(line);
+        if ( mark >= 0 ) {
+            blobMarks.put(mark, hash);
+        }
+    }
+
+    /* stream the data to a file of the import folder, and return its content hash */
+    private String readBlobData(String header) throws IOException {
+        File file = File.createTempFile("blob", ".tmp", Gitlet.store(IMPORT_DIR));
+        MessageDigest digest = Gitlet.newDigest();
+        try (OutputStream out = new DigestOutputStream(new FileOutputStream(file), digest)) {
+            readData(header, out);
+        }
+        String hash = Gitlet.toHex(digest.digest());
+        if ( stored.containsKey(hash) || waiting.containsKey(hash) ) {
+            file.delete();
+        } else {
+            waiting.put(hash, file);
+            blobs++;
+        }
+        return hash;
+    }
+
+    private void readCommit(String ref) throws IOException {
+        int mark = readMark();
+        String line = next();
+        long time = System.currentTimeMillis();
+        while ( !line.startsWith("data ") ) {
+            if ( line.startsWith("committer ") ) {
+                // committer <name> <email> <seconds> <zone>
+                String[] words = line.split(" ");
+                time = Long.parseLong(words[words.length - 2]) * 1000;
+            } else if ( !line.startsWith("author ") && !line.startsWith("original-oid ")
+                    && !line.startsWith("encoding ") ) {
+                throw new IOException("Unexpected line <" + line + "> in a commit");
+            }
+            line = next();
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        readData(line, message);
+        String messageText = new String(message.toByteArray(), StandardCharsets.UTF_8);
+        if ( messageText.endsWith("\n") ) {
+            messageText = messageText.substring(0, messageText.length() - 1);
+        }
+        int parentId = tips.containsKey(ref) ? tips.get(ref) : 0;
+        if ( peek() != null && peek().startsWith("from ") ) {
+            parentId = commit(next().substring("from ".length()));
+        }
+        while ( peek() != null && peek().startsWith("merge ") ) {
+            next();
+        }
+        CommitNode parent = commits.get(parentId);
+
+        // path -> {hash, location}, location null until the blob is stored, null for a delete
+        TreeMap<String, String[]> changes = new TreeMap<String, String[]>();
+        while ( (line = peek()) != null ) {
+            if ( line.isEmpty() ) {
+                next();
+                break;
+            }
+            if ( line.startsWith("M ") ) {
+                next();
+                String[] words = line.split(" ", 4);
+                if ( words[1].equals("160000") ) {
+                    // a submodule commit, which Gitlet can not hold
+                    continue;
+                }
+                String hash;
+                if ( words[2].equals("inline") ) {
+                    hash = readBlobData(next());
+                } else if ( words[2].startsWith(":") && blobMarks.containsKey(Integer.parseInt(words[2].substring(1))) ) {
+                    hash = blobMarks.get(Integer.parseInt(words[2].substring(1)));
+                } else {
+                    throw new IOException("Unknown blob <" + words[2] + ">");
+                }
+                if ( words[1].endsWith("755") ) {
+                    executable.put(hash, true);
+                }
+                changes.put(unquote(words[3]), new String[] { hash, stored.get(hash) });
+            } else if ( line.startsWith("D ") ) {
+                next();
+                String path = unquote(line.substring(2));
+                for ( String p : files(parent, changes, path).keySet() ) {
+                    changes.put(p, null);
+                }
+            } else if ( line.startsWith("C ") || line.startsWith("R ") ) {
+                next();
+                String[] paths = splitPaths(line.substring(2));
+                for ( Map.Entry<String, String[]> e : files(parent, changes, paths[0]).entrySet() ) {
+                    String to = paths[1] + e.getKey().substring(paths[0].length());
+                    if ( line.startsWith("R ") ) {
+                        changes.put(e.getKey(), null);
+                    }
+                    changes.put(to, e.getValue());
+                }
+            } else if ( line.equals("deleteall") ) {
+                next();
+                changes.clear();
+                for ( String p : files(parent, changes, "").keySet() ) {
+                    changes.put(p, null);
+                }
+            } else if ( line.startsWith("N ") ) {
+                // notes are not kept, an inline note has its data after it
+                next();
+                if ( line.startsWith("N inline ") ) {
+                    readData(next(), null);
+                }
+            } else {
+                break;
+            }
+        }
+
+        int newId = commits.size();
+        String folder = Gitlet.GITLET_DIR + newId + "/";
+        for ( Map.Entry<String, String[]> e : changes.entrySet() ) {
+            String[] v = e.getValue();
+            if ( v != null && v[1] == null ) {
+                e.setValue(new String[] { v[0], place(v[0], folder + e.getKey()) });
+            }
+        }
+        CommitNode node = new CommitNode(newId, parentId, messageText, time);
+        node.treeHash = Tree.update(parent.treeHash, changes);
+        node.changedPaths = PathBloom.build(changes.keySet());
+        node.hash = node.computeHash(parent.hash);
+        commits.add(node);
+        tips.put(ref, newId);
+        if ( mark >= 0 ) {
+            commitMarks.put(mark, newId);
+        }
+        imported++;
+    }
+
+    /* the files at the path, or below it when it is a directory, in the parent with the
+    changes so far. path -> {hash, location} */
+    private TreeMap<String, String[]> files(CommitNode parent, TreeMap<String, String[]> changes, String path) {
+        TreeMap<String, String[]> result = new TreeMap<String, String[]>();
+        String prefix = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+        HashMap<String, String> locations = new HashMap<String, String>();
+        HashMap<String, String> hashes = new HashMap<String, String>();
+        String[] entry = path.isEmpty() ? null : Tree.find(parent.treeHash, path);
+        if ( entry != null ) {
+            result.put(path, entry);
+        } else {
+            Tree.flatten(parent.treeHash, null, locations, hashes);
+            for ( Map.Entry<String, String> e : locations.entrySet() ) {
+                if ( e.getKey().startsWith(prefix) ) {
+                    result.put(e.getKey(), new String[] { hashes.get(e.getKey()), e.getValue() });
+                }
+            }
+        }
+        for ( Map.Entry<String, String[]> e : changes.entrySet() ) {
+            if ( e.getKey().equals(path) || e.getKey().startsWith(prefix) ) {
+                if ( e.getValue() == null ) {
+                    result.remove(e.getKey());
+                } else {
+                    result.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /* the stored location of the version, which is moved to the location when it is new */
+    private String place(String hash, String location) throws IOException {
+        if ( stored.containsKey(hash) ) {
+            return stored.get(hash);
+        }
+        File file = waiting.remove(hash);
+        File target = Gitlet.store(location);
+        Files.createDirectories(target.getParentFile().toPath());
+        if ( file.length() >= ChunkStore.THRESHOLD ) {
+            location = location + ChunkStore.CHUNKED_SUFFIX;
+            ChunkStore.store(file, Gitlet.store(location));
+            file.delete();
+        } else {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if ( executable.containsKey(hash) ) {
+                target.setExecutable(true);
+            }
+        }
+        stored.put(hash, location);
+        return location;
+    }
+
+    /* the id of the commit a from line or a reset names: a mark, a ref or a Gitlet hash */
+    private int commit(String name) throws IOException {
+        if ( name.startsWith(":") && commitMarks.containsKey(Integer.parseInt(name.substring(1))) ) {
+            return commitMarks.get(Integer.parseInt(name.substring(1)));
+        }
+        if ( tips.containsKey(name) ) {
+            return tips.get(name);
+        }
+        if ( tips.containsKey("refs/heads/" + name) ) {
+            return tips.get("refs/heads/" + name);
+        }
+        for ( CommitNode node : commits ) {
+            if ( node.hash.equals(name) ) {
+                return node.commitId;
+            }
+        }
+        throw new IOException("Unknown commit <" + name + ">");
+    }
+
+    private int readMark() throws IOException {
+        if ( peek() != null && peek().startsWith("mark :") ) {
+            return Integer.parseInt(next().substring("mark :".length()));
+        }
+        return -1;
+    }
+
+    /* copy the data after a "data <count>" or "data <<<delimiter>" header to out, or skip it
+    when out is null */
+    private void readData(String header, OutputStream out) throws IOException {
+        if ( !header.startsWith("data ") ) {
+            throw new IOException("Expected data, got <" + header + ">");
+        }
+        String size = header.substring("data ".length());
+        if ( size.startsWith("<<") ) {
+            String delimiter = size.substring(2);
+            String line;
+            while ( (line = readLine()) != null && !line.equals(delimiter) ) {
+                if ( out != null ) {
+                    out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return;
+        }
+        long left = Long.parseLong(size);
+        while ( left > 0 ) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if ( n < 0 ) {
+                throw new IOException("The stream ends inside a data block");
+            }
+            if ( out != null ) {
+                out.write(buffer, 0, n);
+            }
+            left -= n;
+        }
+        // an optional line feed after the data
+        in.mark(1);
+        if ( in.read() != '\n' ) {
+            in.reset();
+        }
+    }
+
+    private String peek() throws IOException {
+        if ( peeked == null ) {
+            peeked = readLine();
+        }
+        return peeked;
+    }
+
+    private String next() throws IOException {
+        String line = peek();
+        peeked = null;
+        return line;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ( (c = in.read()) >= 0 && c != '\n' ) {
+            line.write(c);
+        }
+        if ( c < 0 && line.size() == 0 ) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /* a path as it is written in a file command, a C style string when it is quoted */
+    static String unquote(String path) {
+        if ( !path.startsWith("\"") ) {
+            return path;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( int i = 1; i < path.length() - 1; i++ ) {
+            char c = path.charAt(i);
+            if ( c != '\\' ) {
+                byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                continue;
+            }
+            c = path.charAt(++i);
+            if ( c >= '0' && c <= '7' ) {
+                // an octal byte, three digits
+                out.write(Integer.parseInt(path.substring(i, i + 3), 8));
+                i += 2;
+            } else {
+                out.write(c == 'n' ? '\n' : c == 't' ? '\t' : c == 'r' ? '\r' : c == 'a' ? 7
+                    : c == 'b' ? '\b' : c == 'f' ? '\f' : c == 'v' ? 11 : c);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /* the source and destination of a C or R command, the first one quoted when it has a
+    space */
+    private static String[] splitPaths(String rest) {
+        if ( rest.startsWith("\"") ) {
+            int end = 1;
+            while ( rest.charAt(end) != '"' ) {
+                end += rest.charAt(end) == '\\' ? 2 : 1;
+            }
+            return new String[] { unquote(rest.substring(0, end + 1)), unquote(rest.substring(end + 2)) };
+        }
+        int space = rest.indexOf(' ');
+        return new String[] { rest.substring(0, space), unquote(rest.substring(space + 1)) };
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+/*Sampled fingerprint of a file, used to guess renames. Every line gets a 64 bit hash (the
+n-th copy of a line gets a different one) and only the smallest SAMPLE hashes are kept,
+so two files can be compared in O(SAMPLE) whatever their size*/
+
+public class Fingerprint {
+    static final int SAMPLE = 64;
+
+    final long[] hashes; // sorted
+
+    public Fingerprint(List<String> lines) {
+        TreeSet<Long> smallest = new TreeSet<Long>();
+        HashMap<String, Integer> seen = new HashMap<String, Integer>();
+        for ( String line : lines ) {
+            String key = line.trim();
+            Integer copy = seen.get(key);
+            copy = copy == null ? 0 : copy + 1;
+            seen.put(key, copy);
+            long h = hash(key, copy);
+            if ( smallest.size() < SAMPLE ) {
+                smallest.add(h);
+            } else if ( h < smallest.last() && !smallest.contains(h) ) {
+                smallest.pollLast();
+                smallest.add(h);
+            }
+        }
+        this.hashes = new long[smallest.size()];
+        int i = 0;
+        for ( long h : smallest ) {
+            hashes[i++] = h;
+        }
+    }
+
+    /* FNV-1a of the line, mixed with the copy number */
+    private static long hash(String s, int copy) {
+        long h = 0xcbf29ce484222325L ^ copy;
+        for ( int i = 0; i < s.length(); i++ ) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /* estimated share of lines the two files have in common, from 0 to 100. Only the
+    smallest hashes of the union are looked at, which is the bottom-k estimate of the
+    Jaccard index */
+    public int similarity(Fingerprint other) {
+        if ( hashes.length == 0 || other.hashes.length == 0 ) {
+            return hashes.length == other.hashes.length ? 100 : 0;
+        }
+        int k = Math.max(hashes.length, other.hashes.length);
+        int i = 0;
+        int j = 0;
+        int seen = 0;
+        int common = 0;
+        while ( seen < k && (i < hashes.length || j < other.hashes.length) ) {
+            if ( j >= other.hashes.length || (i < hashes.length && hashes[i] < other.hashes[j]) ) {
+                i++;
+            } else if ( i >= hashes.length || other.hashes[j] < hashes[i] ) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+            seen++;
+        }
+        return common * 100 / seen;
+    }
+
+    /* pair every deleted file with the most similar added file, if they are at least
+    minScore similar. Candidates are found through the shared hashes, so files that have
+    nothing in common are never compared. Returns {deleted index, added index, score} */
+    public static ArrayList<int[]> pairs(List<Fingerprint> deleted, List<Fingerprint> added, int minScore) {
+        HashMap<Long, ArrayList<Integer>> index = new HashMap<Long, ArrayList<Integer>>();
+        for ( int j = 0; j < added.size(); j++ ) {
+            for ( long h : added.get(j).hashes ) {
+                ArrayList<Integer> list = index.get(h);
+                if ( list == null ) {
+                    list = new ArrayList<Integer>();
+                    index.put(h, list);
+                }
+                list.add(j);
+            }
+        }
+        ArrayList<int[]> candidates = new ArrayList<int[]>();
+        for ( int i = 0; i < deleted.size(); i++ ) {
+            TreeSet<Integer> shared = new TreeSet<Integer>();
+            for ( long h : deleted.get(i).hashes ) {
+                ArrayList<Integer> list = index.get(h);
+                if ( list != null ) {
+                    shared.addAll(list);
+                }
+            }
+            for ( int j : shared ) {
+                int score = deleted.get(i).similarity(added.get(j));
+                if ( score >= minScore ) {
+                    candidates.add(new int[] { i, j, score });
+                }
+            }
+        }
+        // best scores first, then keep each file in one pair only
+        candidates.sort((p, q) -> p[2] != q[2] ? q[2] - p[2] : p[0] != q[0] ? p[0] - q[0] : p[1] - q[1]);
+        boolean[] usedDeleted = new boolean[deleted.size()];
+        boolean[] usedAdded = new boolean[added.size()];
+        ArrayList<int[]> result = new ArrayList<int[]>();
+        for ( int[] c : candidates ) {
+            if ( !usedDeleted[c[0]] && !usedAdded[c[1]] ) {
+                usedDeleted[c[0]] = true;
+                usedAdded[c[1]] = true;
+                result.add(c);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,290 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+/*File system monitor. "gitlet fsmonitor start" runs a watcher that appends every path that
+changes in the working directory to .gitlet/fsmonitor/log. status, add -A and commit -a then
+only look at the paths logged since their last run, plus the paths that were dirty back then.
+The watcher holds a lock while it runs, and writes a new token every time it starts; when it is
+not running, was restarted or lost events, the commands go back to a full scan*/
+
+public class FsMonitor {
+    static final String MONITOR_DIR = Gitlet.GITLET_DIR + "fsmonitor/";
+    private static final String LOCK_FILE = MONITOR_DIR + "lock";
+    private static final String TOKEN_FILE = MONITOR_DIR + "token";
+    private static final String LOG_FILE = MONITOR_DIR + "log";
+    private static final String STOP_FILE = MONITOR_DIR + "stop";
+    // what the commands saw last time: token, log offset, stamp, head tree and the dirty paths
+    private static final String SEEN_FILE = MONITOR_DIR + "seen";
+    private static final String OVERFLOW_LINE = "!overflow";
+    // the watcher starts a new log, and so a new token, when the log gets bigger than this
+    private static final long LOG_LIMIT = 8 << 20;
+
+    private final String token;
+    private final long offset;
+    private final String stamp;
+    private final String treeHash;
+    // the paths to look at, or null when a full scan is needed
+    final TreeSet<String> paths;
+
+    private FsMonitor(String token, long offset, String stamp, String treeHash, TreeSet<String> paths) {
+        this.token = token;
+        this.offset = offset;
+        this.stamp = stamp;
+        this.treeHash = treeHash;
+        this.paths = paths;
+    }
+
+    /* run the watcher until "fsmonitor stop" */
+    public static void start() {
+        try {
+            Files.createDirectories(Paths.get(MONITOR_DIR));
+            Files.deleteIfExists(Paths.get(STOP_FILE));
+        } catch (IOException e) {
+            System.out.println("Cannot create <"+MONITOR_DIR+">");
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE); WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            FileLock lock = channel.tryLock();
+            if ( lock == null ) {
+                System.out.println("An fsmonitor is already running");
+                return;
+            }
+            HashMap<WatchKey, String> dirs = new HashMap<WatchKey, String>();
+            OutputStream log = newLog();
+            // the folder of the monitor is watched too, for the stop file
+            Paths.get(MONITOR_DIR).register(watcher, ENTRY_CREATE);
+            register(watcher, dirs, null, null);
+            System.out.println("Watching the working directory, stop with: gitlet fsmonitor stop");
+            while ( true ) {
+                WatchKey key = watcher.take();
+                String dir = dirs.get(key);
+                StringBuilder lines = new StringBuilder();
+                for ( WatchEvent<?> event : key.pollEvents() ) {
+                    if ( event.kind() == OVERFLOW ) {
+                        lines.append(OVERFLOW_LINE).append('\n');
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if ( !dirs.containsKey(key) ) {
+                        if ( name.equals("stop") ) {
+                            log.close();
+                            return;
+                        }
+                        continue;
+                    }
+                    String path = dir == null ? name : dir + "/" + name;
+                    if ( dir == null && name.equals(".gitlet") ) {
+                        continue;
+                    }
+                    lines.append(path).append('\n');
+                    if ( event.kind() == ENTRY_CREATE && new File(path).isDirectory() ) {
+                        // files can be written before the new directory is watched, so
+                        // everything found in it is logged too
+                        register(watcher, dirs, path, lines);
+                    }
+                }
+                if ( !key.reset() ) {
+                    dirs.remove(key);
+                }
+                if ( lines.length() > 0 ) {
+                    log.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    log.flush();
+                }
+                if ( new File(LOG_FILE).length() > LOG_LIMIT ) {
+                    log.close();
+                    log = newLog();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("The fsmonitor stopped: "+e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* empty the log and write a new token, so the commands rescan once */
+    private static OutputStream newLog() throws IOException {
+        OutputStream log = new FileOutputStream(LOG_FILE);
+        File tmp = new File(TOKEN_FILE + ".tmp");
+        String token = Long.toHexString(System.currentTimeMillis()) + "-" + Long.toHexString(System.nanoTime());
+        Files.write(tmp.toPath(), token.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), Paths.get(TOKEN_FILE), StandardCopyOption.REPLACE_EXISTING);
+        return log;
+    }
+
+    /* watch the directory and all the directories below it. When found is not null, the files
+    below the directory are added to it, one per line */
+    private static void register(WatchService watcher, HashMap<WatchKey, String> dirs, String dir,
+            StringBuilder found) throws IOException {
+        // registered before it is listed, so nothing is missed in between
+        dirs.put(Paths.get(dir == null ? "." : dir).register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        File[] children = new File(dir == null ? "." : dir).listFiles();
+        if ( children == null ) {
+            return;
+        }
+        for ( File child : children ) {
+            String path = dir == null ? child.getName() : dir + "/" + child.getName();
+            if ( dir == null && child.getName().equals(".gitlet") ) {
+                continue;
+            }
+            if ( child.isDirectory() ) {
+                register(watcher, dirs, path, found);
+            } else if ( found != null ) {
+                found.append(path).append('\n');
+            }
+        }
+    }
+
+    /* ask the running watcher to stop */
+    public static void stop() {
+        if ( !isRunning() ) {
+            System.out.println("No fsmonitor is running");
+            return;
+        }
+        try {
+            Files.write(Paths.get(STOP_FILE), new byte[0]);
+        } catch (IOException e) {
+            System.out.println("Cannot write <"+STOP_FILE+">");
+        }
+    }
+
+    /* whether a watcher holds the lock */
+    public static boolean isRunning() {
+        if ( !new File(LOCK_FILE).exists() ) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(LOCK_FILE), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if ( lock == null ) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // the watcher runs in this process
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /* the paths that may differ from what the last command saw: the ones logged since then,
+    the ones that were dirty, and the ones that changed between the head tree back then and
+    treeHash. stamp changes when the rules about which files count change (ignore and sparse
+    files), and forces a full scan. tracked is used to find the files below a deleted directory */
+    public static FsMonitor query(String stamp, String treeHash, Collection<String> tracked) {
+        if ( !isRunning() ) {
+            return new FsMonitor(null, 0, stamp, treeHash, null);
+        }
+        String token;
+        try {
+            token = new String(Files.readAllBytes(Paths.get(TOKEN_FILE)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new FsMonitor(null, 0, stamp, treeHash, null);
+        }
+        List<String> seen;
+        try {
+            seen = Files.readAllLines(Paths.get(SEEN_FILE), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            seen = new ArrayList<String>();
+        }
+        boolean valid = seen.size() >= 4 && seen.get(0).equals(token) && seen.get(2).equals(stamp);
+        TreeSet<String> paths = new TreeSet<String>();
+        long end;
+        try (RandomAccessFile in = new RandomAccessFile(LOG_FILE, "r")) {
+            long length = in.length();
+            long start = valid ? Long.parseLong(seen.get(1)) : Math.max(0, length - 4096);
+            if ( start > length ) {
+                return new FsMonitor(token, 0, stamp, treeHash, null);
+            }
+            byte[] log = new byte[(int) (length - start)];
+            in.seek(start);
+            in.readFully(log);
+            // complete lines only, the watcher may be in the middle of a write
+            int last = log.length;
+            while ( last > 0 && log[last - 1] != '\n' ) {
+                last--;
+            }
+            end = start + last;
+            if ( !valid ) {
+                return new FsMonitor(token, end, stamp, treeHash, null);
+            }
+            for ( String line : new String(log, 0, last, StandardCharsets.UTF_8).split("\n") ) {
+                if ( line.equals(OVERFLOW_LINE) ) {
+                    return new FsMonitor(token, end, stamp, treeHash, null);
+                }
+                if ( !line.isEmpty() ) {
+                    paths.add(line);
+                }
+            }
+        } catch (IOException e) {
+            return new FsMonitor(null, 0, stamp, treeHash, null);
+        }
+        paths.addAll(seen.subList(4, seen.size()));
+        // commits, checkouts and resets change what the files are compared to
+        try {
+            for ( Tree.Change change : Tree.diff(seen.get(3), treeHash) ) {
+                paths.add(change.path);
+            }
+        } catch (IllegalStateException e) {
+            // the old tree was removed by gc
+            return new FsMonitor(token, end, stamp, treeHash, null);
+        }
+        // a logged directory stands for everything that is or was below it
+        TreeSet<String> all = new TreeSet<String>(tracked);
+        all.addAll(paths);
+        for ( String path : new ArrayList<String>(paths) ) {
+            paths.addAll(all.subSet(path + "/", path + "/\uffff"));
+        }
+        return new FsMonitor(token, end, stamp, treeHash, paths);
+    }
+
+    /* remember what the command saw. dirty are the paths that differ from the head commit,
+    they are looked at again next time */
+    public void save(Collection<String> dirty) {
+        if ( token == null ) {
+            return;
+        }
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add(token);
+        lines.add(String.valueOf(offset));
+        lines.add(stamp);
+        lines.add(treeHash);
+        lines.addAll(new TreeSet<String>(dirty));
+        try {
+            File tmp = new File(SEEN_FILE + ".tmp");
+            Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), Paths.get(SEEN_FILE), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Cannot write <"+SEEN_FILE+">");
+        }
+    }
+
+    public static void status() {
+        System.out.println(isRunning() ? "The fsmonitor is running" : "No fsmonitor is running");
+    }
+}
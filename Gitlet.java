@@ -1,9 +1,11 @@
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 import java.io.File;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.io.FileInputStream;
 import java.io.ObjectInputStream;
 import java.io.FileOutputStream;
@@ -14,7 +16,31 @@ import java.util.ArrayList;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Scanner;
-import org.apache.commons.io.FileUtils;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class Gitlet implements Serializable {
 
@@ -24,174 +50,649 @@ public class Gitlet implements Serializable {
     private ArrayList<String> staged; // all the staged 
     private ArrayList<String> removal; // files in the commit node but will be removed in the next commit
     private String currBranch; // which branch we are in
+    // files staged straight from the store, without a working copy (outside the sparse
+    // checkout). key: fileName value: {hash, location}
+    private HashMap<String, String[]> stagedEntries;
+    private CommitGraph graph; // see graph()
+    // in a linked worktree: the state of the main one, which holds the commits and branches
+    private HashMap<String, Object> shared;
+    private boolean failed; // set by error()
+    private boolean inBatch; // set by batch()
+    // options of merge, rebase and reset, see readOptions()
+    private boolean assumeYes;
+    private boolean dryRun;
+    private String reportFile;
+    // the commands that change the working files or the store as they run, and so can not
+    // be taken back when a later command of a batch fails
+    private static final Set<String> NOT_IN_BATCH = new HashSet<String>(Arrays.asList("init",
+            "checkout", "reset", "undo", "merge", "cherry-pick", "revert", "rebase", "i-rebase",
+            "sparse-checkout", "bisect", "worktree", "fast-import", "gc"));
+
+    static final String GITLET_DIR = ".gitlet/";
+    // in a linked worktree, the folder of the main working directory
+    private static final String WORKTREE_FILE = GITLET_DIR+"worktree";
+    // in the main one, a file with the folder of every linked worktree
+    private static final String WORKTREES_DIR = GITLET_DIR+"worktrees/";
+    private static final String IGNORE_FILE = ".gitletignore";
+    private static final String BLAME_DIR = GITLET_DIR+"blame/";
+    private static final String SPARSE_FILE = GITLET_DIR+"sparse-checkout";
+    private static final String TIME_FORMAT = "yyyy/MM/dd HH:mm:ss";
+    // unreachable commits younger than this many days are kept by gc
+    private static final double GC_GRACE_DAYS = 14;
+    // lines of context around each change in diff, and the similarity a rename needs
+    private static final int DIFF_CONTEXT = 3;
+    private static final int RENAME_SCORE = 50;
+    // hex digits an abbreviated commit hash needs. Shorter ids, and numbers of existing
+    // commits, are commit numbers
+    private static final int MIN_PREFIX = 4;
+    // number of worker threads used to hash and copy files during commit
+    private static final int IO_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    // the folder whose .gitlet holds the commits and the stored files, ending with a /. Empty in
+    // the main working directory, which is the current one, see store()
+    static String root = "";
     
     public static void main(String[] args) {
-        String command;
-        String token = "o";
-        Gitlet gitlet = new Gitlet();
-        gitlet.readGit();
+        // the path table and the trees are read from the repository the command runs in
+        PathTable.clear();
+        Tree.clearLoaded();
+        Reflog.clear();
+        root = findRoot();
         if (args.length == 0) {
             System.out.println("No command detected.");
             System.out.println("use ' java Gitlet help ' for help");
             return;
-        } else if (args.length == 1) {
+        }
+        if ( args[0].equals("fsmonitor") && args.length > 1 && args[1].equals("start") ) {
+            // runs until it is stopped, and must not save over the state of the
+            // commands that ran in the meantime
+            FsMonitor.start();
+            return;
+        }
+        // the worktrees of a repository share git.ser, so their commands run one at a time
+        try (FileChannel channel = lockStore()) {
+            if ( channel != null && channel.tryLock() == null ) {
+                System.out.println("Another gitlet command is running in this repository");
+                return;
+            }
+            Gitlet gitlet = new Gitlet();
+            gitlet.readGit();
+            if ( args[0].equals("batch") ) {
+                // saves the state itself, once at the end
+                gitlet.batch(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+            gitlet.run(args);
+            gitlet.saveGit();
+        } catch (IOException e) {
+            System.out.println("Cannot lock the repository");
+        }
+    }
+
+    /* the lock file of the repository, or null before init */
+    private static FileChannel lockStore() throws IOException {
+        if ( !store(GITLET_DIR).isDirectory() ) {
+            return null;
+        }
+        return FileChannel.open(store(GITLET_DIR+"lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /* a file of the store: the state, a stored copy, a tree or a chunk. The paths are kept
+    relative to the main working directory, so they are the same in every worktree */
+    static File store(String path) {
+        return new File(root+path);
+    }
+
+    /* the folder of the main working directory when the current one is a linked worktree,
+    read from its .gitlet/worktree, or "" */
+    private static String findRoot() {
+        File link = new File(WORKTREE_FILE);
+        if ( !link.isFile() ) {
+            return "";
+        }
+        try {
+            String folder = new String(Files.readAllBytes(link.toPath()), StandardCharsets.UTF_8).trim();
+            return folder.endsWith("/") ? folder : folder+"/";
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /* run one command against the state in memory */
+    private void run(String[] args) {
+        String command;
+        String token = "o";
+        if (args.length == 1) {
             command = args[0];
         } else {
             command = args[0];
             token = args[1];
         }
+        // the options only hold for the command that gave them, see readOptions()
+        assumeYes = false;
+        dryRun = false;
+        reportFile = null;
+        if ( inBatch && NOT_IN_BATCH.contains(command)
+                && !(command.equals("merge") && Arrays.asList(args).contains("--dry-run")) ) {
+            error("The command "+command+" changes files right away, it can not run in a batch");
+            return;
+        }
         switch (command) {
             case "init":
-                gitlet.initialize();
+                initialize();
                 break;
             case "add":
-            	// be able to add multiple files at a time 
-            	for (int i =1; i<args.length;i++) {
-                	gitlet.add(args[i]);
-            	}
+            	// be able to add multiple files, directories and glob patterns at a time 
+                addPaths(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
-                gitlet.commit(token);
+                if ( "-a".equals(token) || "-am".equals(token) ) {
+                    // stage the changed and deleted tracked files first, like git commit -a
+                    stageTracked();
+                    commit(args.length > 2 ? args[2] : null);
+                } else {
+                    commit(token);
+                }
                 break;
             case "rm":
                 // be able to remove multiple files at a time 
                 for (int i =1; i<args.length;i++) {
-                    gitlet.remove(args[i]);
+                    remove(args[i]);
                 }
                 break;
             case "log":
-                gitlet.log();
+                if ( args.length == 1 ) {
+                    log();
+                } else {
+                    // log -- <path> and log <path> both show the history of one path
+                    String path = "--".equals(token) && args.length > 2 ? args[2] : token;
+                    log(normalizePath(path));
+                }
                 break;
             case "global-log":
-                gitlet.globallog();
+                globallog();
                 break;
             case "find":
-                gitlet.find(token);
+                find(token);
+                break;
+            case "blame":
+                blame(normalizePath(token));
+                break;
+            case "sparse-checkout":
+                sparseCheckout(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "diff":
+                diff(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "status":
-                gitlet.status();
+                status();
+                break;
+            case "fsmonitor":
+                if ( "start".equals(token) ) {
+                    error("The fsmonitor can not be started from a batch");
+                } else if ( "stop".equals(token) ) {
+                    FsMonitor.stop();
+                } else {
+                    FsMonitor.status();
+                }
                 break;
             case "stash":
                 if ( token == null || "save".equals(token) )
                 {
-                    gitlet.stash();
+                    stash();
                 }
                 else if ( "pop".equals(token) ) {
-                    gitlet.pop();
+                    pop();
                 }
                 break;
             case "checkout":
                 if ( args.length == 1) {
-                    gitlet.checkoutBranch("master");
+                    checkoutBranch("master");
                 }
                 else if (args.length == 3) {
                     String token1 = args[1];
                     String token2 = args[2];
-                    gitlet.checkout(token1, token2);
+                    checkout(token1, token2);
                     break;
                 } else {
                     if (branchMap.containsKey(token)) {
-                        gitlet.checkoutBranch(token);
+                        checkoutBranch(token);
                     } else {
-                        gitlet.checkout(token);
+                        checkout(token);
                     }
                     break;
                 }
             case "branch":
-                gitlet.branch(token);
+                branch(token);
                 break;
             case "rm-branch":
-                gitlet.rmbranch(token);
+                rmbranch(token);
                 break;
             case "reset":
-                gitlet.reset(token);
+                args = readOptions(args);
+                if ( args.length != 2 || dryRun || reportFile != null ) {
+                    error("Usage: reset [--yes] <commit id>");
+                } else {
+                    reset(args[1]);
+                }
+                break;
+            case "undo":
+                args = readOptions(args);
+                if ( args.length != 1 || dryRun || reportFile != null ) {
+                    error("Usage: undo [--yes]");
+                } else {
+                    undo();
+                }
+                break;
+            case "grep":
+                grep(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "cache-stats":
+                // mostly useful at the end of a batch, or in a program that runs many commands
+                System.out.println(ContentCache.stats());
+                break;
+            case "archive":
+                archive(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "reflog":
+                reflog(args.length > 1 ? args[1] : Reflog.HEAD);
+                break;
+            case "fast-export":
+                fastExport(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "fast-import":
+                fastImport(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "worktree":
+                worktree(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "bisect":
+                bisect(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "gc":
+                gc(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "merge":
-                gitlet.merge(token);
+                args = readOptions(args);
+                if ( args.length != 2 ) {
+                    error("Usage: merge [--yes] [--dry-run] [--report[=<file>]] <branch>");
+                } else {
+                    merge(args[1]);
+                }
+                break;
+            case "cherry-pick":
+            case "revert":
+                args = readOptions(args);
+                if ( args.length != 2 || dryRun || reportFile != null ) {
+                    error("Usage: "+command+" [--yes] <commit id>");
+                } else {
+                    pick(args[1], command.equals("revert"));
+                }
                 break;
             case "rebase":
-                gitlet.rebase(token);
+                args = readOptions(args);
+                if ( args.length != 2 || dryRun || reportFile != null ) {
+                    error("Usage: rebase [--yes] <branch>");
+                } else {
+                    rebase(args[1]);
+                }
                 break;
             case "i-rebase":
-                gitlet.irebase(token);
+                irebase(token);
+                break;
+            case "batch":
+                error("A batch can not run another batch");
                 break;
             default:
-                System.out.println("Unrecognized command.");
+                error("Unrecognized command.");
                 break;
         }
-        gitlet.saveGit();
     }
 
-    private String currTimeStrGenerator() {
-    	// generate a time string in the format yyyy-month-date mm:mm:mm
-    	DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    	Date date = new Date();
-    	return dateFormat.format(date);
+    /* print the error of a command. A batch stops at the first command with an error */
+    private void error(String message) {
+        messages().println(message);
+        failed = true;
+    }
+
+    /* run the commands of the script, one per line, against the state read once. The script
+    is the given file, or stdin. The state is saved once at the end, and only when every
+    command succeeded: a failed batch leaves git.ser as it was. So the commands that write the
+    working files or the store at once, like checkout or gc, are refused. Blank lines and
+    lines starting with # are skipped, arguments with spaces can be quoted */
+    private void batch(String[] args) {
+        List<String> lines;
+        try {
+            if ( args.length > 0 ) {
+                lines = Files.readAllLines(new File(args[0]).toPath(), StandardCharsets.UTF_8);
+            } else {
+                // the whole script is read first, so prompts of the commands do not eat it
+                lines = new ArrayList<String>();
+                Scanner scanner = new Scanner(System.in, "UTF-8");
+                while ( scanner.hasNextLine() ) {
+                    lines.add(scanner.nextLine());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot read the script <"+args[0]+">");
+            return;
+        }
+        inBatch = true;
+        for ( int i = 0; i < lines.size(); i++ ) {
+            List<String> words = splitCommand(lines.get(i));
+            if ( words.isEmpty() || words.get(0).startsWith("#") ) {
+                continue;
+            }
+            run(words.toArray(new String[words.size()]));
+            if ( failed ) {
+                System.out.println("The batch stopped at line "+(i + 1)+", nothing was saved");
+                return;
+            }
+        }
+        saveGit();
+    }
+
+    /* split a line of a script into words. Double or single quotes keep spaces in a word,
+    and a backslash keeps the next character as it is */
+    private static List<String> splitCommand(String line) {
+        ArrayList<String> words = new ArrayList<String>();
+        StringBuilder word = null;
+        char quote = 0;
+        for ( int i = 0; i < line.length(); i++ ) {
+            char c = line.charAt(i);
+            if ( c == '\\' && i + 1 < line.length() && quote != '\'' ) {
+                word = word == null ? new StringBuilder() : word;
+                word.append(line.charAt(++i));
+            } else if ( quote != 0 ) {
+                if ( c == quote ) {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if ( c == '"' || c == '\'' ) {
+                word = word == null ? new StringBuilder() : word;
+                quote = c;
+            } else if ( Character.isWhitespace(c) ) {
+                if ( word != null ) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                word = word == null ? new StringBuilder() : word;
+                word.append(c);
+            }
+        }
+        if ( word != null ) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static String formatTime(long time) {
+    	// generate a time string in the format yyyy/month/date hh:mm:ss
+    	DateFormat dateFormat = new SimpleDateFormat(TIME_FORMAT);
+    	return dateFormat.format(new Date(time));
+    }
+
+    /* the commit graph of the commit list, built on first use and dropped when the list changes */
+    private CommitGraph graph() {
+        if ( graph == null ) {
+            graph = new CommitGraph(commitNode);
+        }
+        return graph;
+    }
+
+
+    /* a task that copies src to dest inside the .gitlet folder and returns {SHA-1 of the
+    content, location}. The file is hashed while it is copied, so it is only read once. Big
+    files are stored as chunks and their location gets the ChunkStore suffix. The stored copy
+    keeps the executable bit of the file, which archive and fast-export read and restoreFile
+    puts back */
+    private static Callable<String[]> storeTask(final File src, final String dest) {
+        return new Callable<String[]>() {
+            public String[] call() throws IOException {
+                String[] stored;
+                if ( src.length() >= ChunkStore.THRESHOLD ) {
+                    String location = dest + ChunkStore.CHUNKED_SUFFIX;
+                    stored = new String[] { ChunkStore.store(src, store(location)), location };
+                } else {
+                    stored = new String[] { storeFile(src, store(dest)), dest };
+                }
+                if ( src.canExecute() ) {
+                    store(stored[1]).setExecutable(true);
+                }
+                return stored;
+            }
+        };
+    }
+
+    private static String storeFile(File src, File dest) throws IOException {
+        File parent = dest.getParentFile();
+        if ( parent != null ) {
+            Files.createDirectories(parent.toPath());
+        }
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(new FileInputStream(src), digest)) {
+            Files.copy(in, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.setLastModifiedTime(dest.toPath(), Files.getLastModifiedTime(src.toPath()));
+        return toHex(digest.digest());
+    }
+
+    static String hashFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( (n = in.read(buffer)) > 0 ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /* the content of the stored file at the given location */
+    static byte[] readStored(String location) throws IOException {
+        if ( ChunkStore.isChunked(location) ) {
+            try (InputStream in = ChunkStore.open(location)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ( (n = in.read(buffer)) > 0 ) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            }
+        }
+        return Files.readAllBytes(store(location).toPath());
+    }
+
+    /* copy the stored files, {location, path}, to the working directory. All the copies are
+    known up front: they are sorted by stored location, so the files of one commit folder and
+    one directory are read one after the other, and run on IO_THREADS workers, so at most that
+    many copies are in flight and the reads of some overlap with the writes of others */
+    private void restoreFiles(List<String[]> copies) {
+        Collections.sort(copies, new Comparator<String[]>() {
+            public int compare(String[] a, String[] b) {
+                return a[0].compareTo(b[0]);
+            }
+        });
+        ArrayList<Future<Object>> done = new ArrayList<Future<Object>>();
+        ExecutorService pool = Executors.newFixedThreadPool(IO_THREADS);
+        try {
+            for ( final String[] copy : copies ) {
+                done.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        restoreFile(copy[0], new File(copy[1]));
+                        return null;
+                    }
+                }));
+            }
+            for ( int i = 0; i < copies.size(); i++ ) {
+                try {
+                    done.get(i).get();
+                } catch (ExecutionException e) {
+                    error("Cannot copy the file <"+copies.get(i)[1]+">");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error("Cannot copy the file <"+copies.get(i)[1]+">");
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* copy the stored file at the given location to the working directory. Chunked files are
+    streamed back together one chunk at a time */
+    private static void restoreFile(String location, File target) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if ( parent != null ) {
+            Files.createDirectories(parent.toPath());
+        }
+        if ( ChunkStore.isChunked(location) ) {
+            try (InputStream in = ChunkStore.open(location)) {
+                Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if ( store(location).canExecute() ) {
+                target.setExecutable(true);
+            }
+            return;
+        }
+        Files.copy(store(location).toPath(), target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
     }
 
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for ( byte b : bytes ) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
 
     private void readGit() {
         // to save run time we can use arraylist instead of hashmap.
-        HashMap<String, Object> gitMap;
-        File gitFile = new File(".gitlet/git.ser");
-        if (gitFile.exists()) {
-
-            try {
-                FileInputStream fileIn = new FileInputStream(gitFile);
-                ObjectInputStream objectIn = new ObjectInputStream(fileIn);
-                gitMap = (HashMap<String, Object>) objectIn.readObject();
-                commitNode = (ArrayList<CommitNode>) gitMap.get("commitNode");
-                head_pointer = (CommitNode) gitMap.get("head_pointer");
-                branchMap = (HashMap<String, CommitNode>)gitMap.get("branchMap");
-                staged = (ArrayList<String>) gitMap.get("staged");
-                removal = (ArrayList<String>) gitMap.get("removal");
-                currBranch = (String) gitMap.get("currBranch");
-            } catch (IOException e) {
-                String msg = "IOException when loading git files";
-                System.out.println(msg);
-            } catch (ClassNotFoundException e) {
-                String msg = "ClassNotFoundException when loading git files";
-                System.out.println(msg);
-            } 
+        HashMap<String, Object> gitMap = readState(store(GITLET_DIR+"git.ser"));
+        if ( gitMap == null ) {
+            return;
+        }
+        commitNode = (ArrayList<CommitNode>) gitMap.get("commitNode");
+        branchMap = (HashMap<String, CommitNode>)gitMap.get("branchMap");
+        if ( !root.isEmpty() ) {
+            // a linked worktree keeps its head, by hash since gc renumbers the commits, and
+            // its staging area in its own .gitlet
+            shared = gitMap;
+            gitMap = readState(new File(GITLET_DIR+"git.ser"));
+            if ( gitMap == null ) {
+                return;
+            }
+            int id = resolveCommit((String) gitMap.get("head"));
+            head_pointer = commitNode.get(id < 0 ? 0 : id);
+        } else {
+            head_pointer = (CommitNode) gitMap.get("head_pointer");
+        }
+        staged = (ArrayList<String>) gitMap.get("staged");
+        removal = (ArrayList<String>) gitMap.get("removal");
+        currBranch = (String) gitMap.get("currBranch");
+        stagedEntries = (HashMap<String, String[]>) gitMap.get("stagedEntries");
+        if ( stagedEntries == null ) {
+            stagedEntries = new HashMap<String, String[]>();
+        }
+    }
 
+    /* the map saved in the state file, or null when there is none */
+    private static HashMap<String, Object> readState(File gitFile) {
+        if ( !gitFile.exists() ) {
+            return null;
+        }
+        try (ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(gitFile))) {
+            return (HashMap<String, Object>) objectIn.readObject();
+        } catch (IOException e) {
+            String msg = "IOException when loading git files";
+            System.out.println(msg);
+        } catch (ClassNotFoundException e) {
+            String msg = "ClassNotFoundException when loading git files";
+            System.out.println(msg);
         }
+        return null;
     }
 
     private void saveGit() {
         // to save run time, we can use arraylist instead of hashmap.But right now we are using hashmap
         HashMap<String, Object> gitMap = new HashMap<String, Object>();
+        HashMap<String, Object> localMap = gitMap;
+        if ( !root.isEmpty() ) {
+            // the head and staging area of the main working directory are kept as they were
+            gitMap = shared == null ? new HashMap<String, Object>() : shared;
+            localMap = new HashMap<String, Object>();
+            localMap.put("head", head_pointer == null ? null : head_pointer.hash);
+        } else {
+            gitMap.put("head_pointer", head_pointer);
+        }
         gitMap.put("commitNode", commitNode);
-        gitMap.put("head_pointer", head_pointer);
         gitMap.put("branchMap", branchMap);
-        gitMap.put("staged", staged);
-        gitMap.put("removal", removal);
-        gitMap.put("currBranch", currBranch);
-        File git = new File(".gitlet","git.ser");
-        if (git.getParentFile()!=null) {
-            try (FileOutputStream fileOut = new FileOutputStream(git)){
-                try(ObjectOutputStream objectOut = new ObjectOutputStream(fileOut))
-                {
-                    objectOut.writeObject(gitMap);
-                } catch (IOException e) {
-                     System.out.println("Unable to save git files. Encountering IOException");
-                }
-            } catch(IOException e) {
-                System.out.println("Unable to save git files. Encountering IOException");   
+        localMap.put("staged", staged);
+        localMap.put("removal", removal);
+        localMap.put("currBranch", currBranch);
+        localMap.put("stagedEntries", stagedEntries);
+        if ( !writeState(gitMap, store(GITLET_DIR+"git.ser")) ) {
+            return;
+        }
+        if ( localMap != gitMap && !writeState(localMap, new File(GITLET_DIR+"git.ser")) ) {
+            return;
+        }
+        try {
+            Reflog.save();
+        } catch (IOException e) {
+            System.out.println("Unable to save the reflog. Encountering IOException");
+        }
+    }
+
+    private static boolean writeState(HashMap<String, Object> gitMap, File git) {
+        // written next to it and moved over it, so a crash never leaves half a state
+        File tmp = new File(git.getPath()+".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp)){
+            try(ObjectOutputStream objectOut = new ObjectOutputStream(fileOut))
+            {
+                objectOut.writeObject(gitMap);
+            } catch (IOException e) {
+                 System.out.println("Unable to save git files. Encountering IOException");
+                 return false;
             }
-            
+        } catch(IOException e) {
+            System.out.println("Unable to save git files. Encountering IOException");   
+            return false;
+        }
+        try {
+            Files.move(tmp.toPath(), git.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Unable to save git files. Encountering IOException");
+            return false;
         }
-      
+        return true;
     }
 
     /* initialize the gitlet system, create the .gitlet folder , and create the initial commitnode
     with the commitID 0*/
     private void initialize() {
-    	String dateStr = currTimeStrGenerator();
-    	CommitNode rootNode = new CommitNode(dateStr);
+    	CommitNode rootNode = new CommitNode(System.currentTimeMillis());
         commitNode = new ArrayList<CommitNode>();
         branchMap = new HashMap<String, CommitNode>();
         staged = new ArrayList<String>();
         removal = new ArrayList<String>();
+        stagedEntries = new HashMap<String, String[]>();
         currBranch = "master";
         commitNode.add(rootNode);
     	head_pointer = rootNode;
@@ -200,25 +701,29 @@ public class Gitlet implements Serializable {
 
         if ( !file.exists()) {
             file.mkdir();
+            Reflog.append(Reflog.HEAD, -1, 0, Reflog.COMMIT);
+            Reflog.append(currBranch, -1, 0, Reflog.COMMIT);
         }
         else {
             System.out.println("A git repository has already been initialized");
         }
     }
 
-     /* put the filename into the stage arraylist, all remove the removed file in removal arraylist */
+     /* put the filename into the stage arraylist, all remove the removed file in removal arraylist.
+     A directory adds every file below it */
     private void add(String fileName) {
         File file = new File(fileName);
         if (!file.exists()) {
-            System.out.println("File "+"<"+fileName+">"+" does not exist");
+            error("File "+"<"+fileName+">"+" does not exist");
             return;
         }
         if ( file.isDirectory()) {
-            System.out.println("Cannot add a directory");
+            addFiles(listWorkingFiles(file, loadIgnore()));
             return;
         }
 
-        if ( !head_pointer.addressBook.containsKey(fileName) )
+        String[] entry = Tree.find(head_pointer.treeHash, fileName);
+        if ( entry == null )
         {
             
             if (!staged.contains(fileName)) {
@@ -233,16 +738,17 @@ public class Gitlet implements Serializable {
             // the file has already been added to the head pointer node.
 
             // check whether the file has been modified since the last commit. If No, do nothing 
-            File oldFile = new File(head_pointer.addressBook.get(fileName));
             try {
-                if (!FileUtils.contentEquals(oldFile,file)) {
-                    staged.add(fileName);
+                if (!hashFile(file).equals(entry[0])) {
+                    if (!staged.contains(fileName)) {
+                        staged.add(fileName);
+                    }
                 }
                 else {
                     System.out.println("No changes for the file <"+fileName+"> since the last commit");
                 }
             } catch(IOException e) {
-                System.out.println("Exceptions while comparing two files in git add");
+                error("Exceptions while comparing two files in git add");
             }
             
             if (removal.contains(fileName)) {
@@ -251,269 +757,675 @@ public class Gitlet implements Serializable {
         }
     }
 
+    /* add the arguments of the add command. "-A" adds every file of the working directory
+    and marks the deleted ones for removal, a directory adds every file below it and a glob
+    pattern adds the matching files. Files matched by .gitletignore are skipped */
+    private void addPaths(String[] args) {
+        PathFilter ignore = loadIgnore();
+        for ( String arg : args ) {
+            String path = normalizePath(arg);
+            File file = new File(path);
+            if ( arg.equals("-A") || arg.equals("--all") ) {
+                addAll();
+            } else if ( !file.exists() && PathFilter.hasWildcard(path) ) {
+                addGlob(path, ignore);
+            } else if ( file.isDirectory() ) {
+                addFiles(listWorkingFiles(file, ignore));
+            } else if ( file.exists() && ignore.covers(path) ) {
+                System.out.println("The file <"+path+"> is ignored by "+IGNORE_FILE);
+            } else {
+                add(path);
+            }
+        }
+    }
+
+    private void addAll() {
+        for ( Map.Entry<String, String> e : workingStatus().entrySet() ) {
+            String key = e.getKey();
+            if ( e.getValue().equals("deleted") ) {
+                removal.add(key);
+            } else {
+                staged.add(key);
+            }
+        }
+        // files marked for removal that are still in the working directory are kept
+        ArrayList<String> back = new ArrayList<String>();
+        for ( String key : removal ) {
+            if ( new File(key).isFile() ) {
+                back.add(key);
+            }
+        }
+        addFiles(back);
+    }
+
+    /* stage the tracked files that were modified or deleted, for commit -a */
+    private void stageTracked() {
+        for ( Map.Entry<String, String> e : workingStatus().entrySet() ) {
+            if ( e.getValue().equals("modified") ) {
+                staged.add(e.getKey());
+            } else if ( e.getValue().equals("deleted") ) {
+                removal.add(e.getKey());
+            }
+        }
+    }
+
+    /* the files of the working directory that differ from the head commit and are not staged,
+    with what happened to them: "modified", "deleted" or "untracked". With a running fsmonitor
+    only the paths it logged since the last call are looked at, otherwise the whole working
+    directory is listed and hashed. Ignored files and files outside the sparse checkout are
+    skipped */
+    private TreeMap<String, String> workingStatus() {
+        PathFilter ignore = loadIgnore();
+        PathFilter sparse = loadSparse();
+        Map<String, String> hashes = head_pointer.getHashBook();
+        String stamp = new File(IGNORE_FILE).lastModified()+" "+new File(SPARSE_FILE).lastModified();
+        FsMonitor monitor = FsMonitor.query(stamp, head_pointer.treeHash, hashes.keySet());
+        TreeSet<String> paths = monitor.paths;
+        if ( paths == null ) {
+            paths = new TreeSet<String>(listWorkingFiles(new File("."), ignore));
+            paths.addAll(hashes.keySet());
+        }
+        HashSet<String> skip = new HashSet<String>(staged);
+        skip.addAll(removal);
+
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        ArrayList<String> tracked = new ArrayList<String>();
+        ArrayList<Future<String>> hashed = new ArrayList<Future<String>>();
+        ExecutorService pool = Executors.newFixedThreadPool(IO_THREADS);
+        try {
+            for ( final String path : paths ) {
+                if ( skip.contains(path) || path.startsWith(GITLET_DIR)
+                        || (sparse != null && !sparse.covers(path)) ) {
+                    continue;
+                }
+                File file = new File(path);
+                if ( hashes.containsKey(path) ) {
+                    if ( !file.isFile() ) {
+                        result.put(path, "deleted");
+                        continue;
+                    }
+                    tracked.add(path);
+                    hashed.add(pool.submit(new Callable<String>() {
+                        public String call() throws IOException {
+                            return hashFile(new File(path));
+                        }
+                    }));
+                } else if ( file.isFile() && !ignore.covers(path) ) {
+                    result.put(path, "untracked");
+                }
+            }
+            for ( int i = 0; i < tracked.size(); i++ ) {
+                String path = tracked.get(i);
+                try {
+                    if ( !hashed.get(i).get().equals(hashes.get(path)) ) {
+                        result.put(path, "modified");
+                    }
+                } catch (ExecutionException e) {
+                    error("Cannot read the file <"+path+">");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        // the dirty and staged paths are looked at again next time, whatever the watcher logs
+        skip.addAll(result.keySet());
+        monitor.save(skip);
+        return result;
+    }
+
+    private void addGlob(String glob, PathFilter ignore) {
+        // only the directory before the first wildcard has to be listed
+        int wildcard = 0;
+        while ( "*?[".indexOf(glob.charAt(wildcard)) < 0 ) {
+            wildcard++;
+        }
+        int slash = glob.lastIndexOf('/', wildcard);
+        File base = slash < 0 ? new File(".") : new File(glob.substring(0, slash));
+        Pattern pattern = PathFilter.compileGlob(glob);
+        ArrayList<String> matched = new ArrayList<String>();
+        if ( base.isDirectory() ) {
+            for ( String path : listWorkingFiles(base, ignore) ) {
+                if ( pattern.matcher(path).matches() ) {
+                    matched.add(path);
+                }
+            }
+        }
+        if ( matched.isEmpty() ) {
+            error("No file matches <"+glob+">");
+            return;
+        }
+        addFiles(matched);
+    }
+
+    /* stage the new and modified files of the list. The tracked files are hashed on the worker
+    pool, and the results are applied in list order. Unchanged files are skipped silently */
+    private void addFiles(List<String> paths) {
+        final Map<String, String> headHashes = head_pointer.getHashBook();
+        ArrayList<Future<Boolean>> changed = new ArrayList<Future<Boolean>>();
+        ExecutorService pool = Executors.newFixedThreadPool(IO_THREADS);
+        try {
+            for ( final String path : paths ) {
+                changed.add(pool.submit(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        String old = headHashes.get(path);
+                        return old == null || !old.equals(hashFile(new File(path)));
+                    }
+                }));
+            }
+            HashSet<String> stagedSet = new HashSet<String>(staged);
+            HashSet<String> removed = new HashSet<String>(removal);
+            for ( int i = 0; i < paths.size(); i++ ) {
+                String path = paths.get(i);
+                try {
+                    if ( changed.get(i).get() && stagedSet.add(path) ) {
+                        staged.add(path);
+                    }
+                } catch (ExecutionException e) {
+                    error("Exceptions while comparing two files in git add");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if ( headHashes.containsKey(path) && removed.remove(path) ) {
+                    removal.remove(path);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* the patterns of the sparse checkout, or null if every file is checked out */
+    private static PathFilter loadSparse() {
+        File file = new File(SPARSE_FILE);
+        return file.exists() ? PathFilter.load(file) : null;
+    }
+
+    private static PathFilter loadIgnore() {
+        return PathFilter.load(new File(IGNORE_FILE));
+    }
+
+    /* paths are kept relative to the working directory, with / as separator */
+    private static String normalizePath(String path) {
+        path = path.replace(File.separatorChar, '/');
+        while ( path.startsWith("./") ) {
+            path = path.substring(2);
+        }
+        while ( path.length() > 1 && path.endsWith("/") ) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /* every file below the directory that is not ignored, sorted by path. The .gitlet folder
+    is always skipped. Sub directories are listed in parallel on the fork join pool */
+    private static ArrayList<String> listWorkingFiles(File dir, PathFilter ignore) {
+        String root = normalizePath(dir.getPath());
+        ArrayList<String> files = ForkJoinPool.commonPool().invoke(
+            new ListTask(root.equals(".") ? null : root, ignore));
+        Collections.sort(files);
+        return files;
+    }
+
+    private static class ListTask extends RecursiveTask<ArrayList<String>> {
+        private static final long serialVersionUID = 1L;
+        private final String dir;
+        private final PathFilter ignore;
+
+        ListTask(String dir, PathFilter ignore) {
+            this.dir = dir;
+            this.ignore = ignore;
+        }
+
+        protected ArrayList<String> compute() {
+            ArrayList<String> files = new ArrayList<String>();
+            File[] children = new File(dir == null ? "." : dir).listFiles();
+            if ( children == null ) {
+                return files;
+            }
+            ArrayList<ListTask> subTasks = new ArrayList<ListTask>();
+            for ( File child : children ) {
+                String name = child.getName();
+                String path = dir == null ? name : dir + "/" + name;
+                if ( dir == null && name.equals(".gitlet") ) {
+                    continue;
+                }
+                boolean isDirectory = child.isDirectory();
+                // a linked worktree inside this one has its own files
+                if ( isDirectory && new File(child, WORKTREE_FILE).isFile() ) {
+                    continue;
+                }
+                if ( ignore.matches(path, isDirectory) ) {
+                    continue;
+                }
+                if ( isDirectory ) {
+                    ListTask task = new ListTask(path, ignore);
+                    task.fork();
+                    subTasks.add(task);
+                } else {
+                    files.add(path);
+                }
+            }
+            for ( ListTask task : subTasks ) {
+                files.addAll(task.join());
+            }
+            return files;
+        }
+    }
+
     /* create a new commitnode, copy the staged files into the folder in .gitlet corresponding 
     to this commitnode. Clear the removal and stage arraylists */
     private void commit(String message){
         if (message==null) {
-            System.out.println("No message associated with this commit, please enter a message");
+            error("No message associated with this commit, please enter a message");
             return;
         }   
-        if (staged.size()==0 && removal.size()==0) {
-            System.out.println("No changes added to the commit");
+        // during a bisect the head is not the head of the branch
+        if ( new File(Bisect.FILE).exists() ) {
+            error("Cannot commit during a bisect, run bisect reset first");
+            return;
+        }
+        if (staged.size()==0 && removal.size()==0 && stagedEntries.size()==0) {
+            error("No changes added to the commit");
             return;
         }
 
         // create a new directory .gitlet/<commitId>
         int newId = commitNode.size();
         String newPath = ".gitlet/"+newId+"/";
-        File file = new File(newPath);
+        File file = store(newPath);
         if (!file.exists()) file.mkdir();
     
-        CommitNode newNode = new CommitNode(newId, head_pointer.commitId, message, newPath, currTimeStrGenerator());
+        CommitNode newNode = new CommitNode(newId, head_pointer.commitId, message, System.currentTimeMillis());
         CommitNode oldNode = head_pointer;
-        File oldFile;
-        File newFile;
-        StandardCopyOption[] options = new StandardCopyOption[]{
-            StandardCopyOption.REPLACE_EXISTING,
-            StandardCopyOption.COPY_ATTRIBUTES
-        }; 
-        String oldELem;
-        // first copy all the staged files
-        for ( int i=0; i<staged.size(); i++ ) {
-            oldELem = staged.get(i);
-            oldFile = new File(oldELem);
-            newFile = new File(newPath+oldELem);
-            if ( oldFile.exists()) {
+
+        // only the staged files are stored in the new folder. Every other file is shared with
+        // the parent through its tree, so the new tree only rewrites the changed directories
+        TreeMap<String, String[]> changes = new TreeMap<String, String[]>();
+        for ( String key : removal ) {
+            changes.put(key, null);
+        }
+        changes.putAll(stagedEntries);
+
+        // hash and store the staged files on the worker pool. The futures are kept in staged
+        // order and merged one by one, so the result does not depend on which copy finishes first
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Future<String[]>> hashes = new ArrayList<Future<String[]>>();
+        ExecutorService pool = Executors.newFixedThreadPool(IO_THREADS);
+        try {
+            for ( String elem : staged ) {
+                File oldFile = new File(elem);
+                if ( oldFile.exists() ) {
+                    names.add(elem);
+                    hashes.add(pool.submit(storeTask(oldFile, newPath+elem)));
+                } else {
+                    changes.put(elem, null);
+                }
+            }
+            for ( int i = 0; i < names.size(); i++ ) {
+                String name = names.get(i);
                 try {
-                    Files.copy(oldFile.toPath(), newFile.toPath(), options);
-                    newNode.addressBook.put(oldELem, newPath+oldELem);
-                } catch (IOException e) {
-                    System.out.println("Cannot copy the file <"+oldELem+">");
+                    changes.put(name, hashes.get(i).get());
+                } catch (ExecutionException e) {
+                    error("Cannot copy the file <"+name+">");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error("Cannot copy the file <"+name+">");
                 }
-            }   
-        }
-        // then copy all the old files except removed files adn staged files
-        for ( String key : oldNode.addressBook.keySet() ) {
-            if ( !removal.contains(key) && !staged.contains(key) ) {
-                oldFile = new File(".gitlet/"+head_pointer.commitId+"/"+key);
-                newFile = new File(newPath+key);
-                if ( oldFile.exists()) {
-                    try {
-                        Files.copy(oldFile.toPath(), newFile.toPath(), options);
-                        newNode.addressBook.put(key, newPath+key);
-                    } catch (IOException e) {
-                        System.out.println("Cannot copy the file <"+key+">");
-                    }
-                }   
             }
+        } finally {
+            pool.shutdown();
         }
-        // copy inBranch from the old node
-        
-        newNode.inBranch.add(currBranch);
-        
-        
-        oldNode.addChild(newNode);
-        commitNode.set(oldNode.commitId, oldNode);
+        newNode.treeHash = Tree.update(oldNode.treeHash, changes);
+        newNode.changedPaths = PathBloom.build(changes.keySet());
+        newNode.hash = newNode.computeHash(oldNode.hash);
         commitNode.add(newNode);
+        graph = null;
+        Reflog.append(Reflog.HEAD, head_pointer.commitId, newNode.commitId, Reflog.COMMIT);
+        Reflog.append(currBranch, branchHead(currBranch), newNode.commitId, Reflog.COMMIT);
         head_pointer = newNode;
         branchMap.remove(currBranch);
         branchMap.put(currBranch, newNode);
         staged.clear();
         removal.clear();
+        stagedEntries.clear();
     }
 
     /* put the filename into the removal arraylist, or remove the staged file from the stage arraylist*/
     private void remove(String fileName){
         File file = new File(fileName);
         if (!file.exists()) {
-            System.out.println("File <"+fileName+"> does not exist");
+            error("File <"+fileName+"> does not exist");
             return;
         }
         if (file.isDirectory()){
-            System.out.println("Cannot remove a directory");
+            error("Cannot remove a directory");
             return;
         }
         if ( staged.contains(fileName)  ) {
             staged.remove(fileName);
         }
-        else if ( head_pointer.addressBook.containsKey(fileName) ) {
+        else if ( Tree.find(head_pointer.treeHash, fileName) != null ) {
             removal.add(fileName);
         }
         else {
-            System.out.println("No reason to remove the file <"+fileName+">");
+            error("No reason to remove the file <"+fileName+">");
         }
     }
 
-    /*find the commitid using the commitmessage*/
+    /*find the commitid using the commitmessage, or an abbreviated commit hash*/
     private void find(String commitMessage){
         CommitNode node;
         boolean flag = false;
         if ( commitNode == null) {
-            System.out.println("No such commit message exists");
+            error("No such commit message exists");
             return;
         }
         for ( int i = 0; i < commitNode.size(); i++) {
             node = commitNode.get(i);
             if ( node.commitMessage.equals(commitMessage) ) {
-                System.out.println("The id of the commit is: "+node.commitId);
+                System.out.println("The id of the commit is: "+node.commitId+" ("+node.hash+")");
+                flag = true;
+            }
+        }
+        if ( !flag && isHashPrefix(commitMessage) ) {
+            for ( int id : graph().withPrefix(commitMessage) ) {
+                node = commitNode.get(id);
+                System.out.println("The id of the commit is: "+node.commitId+" ("+node.hash+") "+node.commitMessage);
                 flag = true;
             }
         }
         if ( !flag ) {
-            System.out.println("No such commit message exists");
+            error("No such commit message exists");
         }
 
     }
 
-    /*Merges files from the head of the given branch into the head of the current branch. */
+    /*Merges files from the head of the given branch into the head of the current branch. With
+    --dry-run the outcome of every file is only printed, the working directory and the staging
+    area are not touched. --report writes the outcomes as JSON */
     public void merge(String branchName) {
         if ( currBranch.equals(branchName) ) {
-            System.out.println("Cannot merge a branch with itself");
+            error("Cannot merge a branch with itself");
             return;
         }
         if ( !branchMap.containsKey(branchName) ) {
-            System.out.println("The branch <"+branchName+"> does not exist");
+            error("The branch <"+branchName+"> does not exist");
             return;
         }
         if ( branchMap.get(branchName).commitId == head_pointer.commitId ) {
-            System.out.println("The branch is already up-to-date");
+            messages().println("The branch is already up-to-date");
             return;
         }
-        if ( staged.size() > 0 || removal.size() > 0) {
-            System.out.println("error: Your local changes to the following files will be overwritten by merge");
-            if ( staged.size() > 0) {
-                for ( int i = 0; i <staged.size(); i++) {
-                    System.out.println(staged.get(i));
-                }
+        // first find the common ancestor of two branches
+        CommitNode toMerge = branchMap.get(branchName);
+        CommitNode currNode = head_pointer;
+        CommitNode commonNode = commitNode.get(graph().mergeBase(currNode.commitId, toMerge.commitId));
+        MergePlan plan = new MergePlan(branchName, commonNode, currNode, toMerge);
+        if ( dryRun ) {
+            if ( !"-".equals(reportFile) ) {
+                plan.print();
             }
-            if ( removal.size() > 0 ) {
-                for ( int j = 0; j <staged.size(); j++) {
-                    System.out.println(removal.get(j));
-                }
+            writeReport(plan);
+            return;
+        }
+        if ( staged.size() > 0 || removal.size() > 0 || stagedEntries.size() > 0 ) {
+            PrintStream out = messages();
+            out.println("error: Your local changes to the following files will be overwritten by merge");
+            for ( String path : staged ) {
+                out.println(path);
+            }
+            for ( String path : removal ) {
+                out.println(path);
+            }
+            for ( String path : stagedEntries.keySet() ) {
+                out.println(path);
             }
-            System.out.println("Please commit your changes or stash them before you can merge");
+            error("Please commit your changes or stash them before you can merge");
             return;
         }
 
-        boolean flag = true;
-        
-        System.out.println("This operation might add, remove and modify some files in the working directory");
-        System.out.println("Do you want to continue, Y / N ?");
-        Scanner scanner = new Scanner(System.in);
-        while ( scanner.hasNextLine() ) {
-            String s = scanner.nextLine();
+        if ( confirm("This operation might add, remove and modify some files in the working directory") ) {
+            // The stored files of the commits are never modified since they can be shared with
+            // other commits: the result is written to the working directory and staged for the
+            // next commit
+            PathFilter sparse = loadSparse();
+            for ( MergePlan.Entry e : plan.entries ) {
+                if ( e.outcome == MergePlan.ADDED || e.outcome == MergePlan.UPDATED ) {
+                    stageFromStore(e.path, e.theirs, e.location, sparse);
+                } else if ( e.outcome == MergePlan.CONFLICT ) {
+                    // created a conflicted version in curr
+                    try {
+                        restoreFile(e.location, new File(e.path+".conflicted"));
+                    } catch (IOException ex) {
+                        error("Cannot copy the file <"+e.path+">");
+                    }
+                } else if ( e.outcome == MergePlan.DELETED ) {
+                    // Remove this file from curr, files outside the sparse checkout are not there
+                    try {
+                        if ( sparse == null || sparse.covers(e.path) ) {
+                            Files.deleteIfExists(new File(e.path).toPath());
+                        }
+                        if (!removal.contains(e.path)) {
+                            removal.add(e.path);
+                        }
+                    } catch (IOException ex) {
+                        error("Cannot delete the file <"+e.path+">");
+                    }
+                }
+            }
+            writeReport(plan);
+        }
+    }
+
+    /* apply what the commit changed from its parent onto the head and commit it, or with
+    revert take it back. Only the paths the commit changed are looked at: when the head has
+    the old version the new one is taken, when it already has the new one nothing is done, and
+    only when the head changed the file too are the lines merged. A merge that conflicts is
+    left in the file between markers, to be fixed and committed by hand */
+    private void pick(String commitId, boolean revert) {
+        String command = revert ? "revert" : "cherry-pick";
+        CommitNode node = branchMap.containsKey(commitId) ? branchMap.get(commitId) : findCommit(commitId);
+        if ( node == null ) {
+            return;
+        }
+        int parentId = graph().parent(node.commitId);
+        if ( parentId < 0 ) {
+            error("Cannot "+command+" the initial commit");
+            return;
+        }
+        if ( staged.size() > 0 || removal.size() > 0 || stagedEntries.size() > 0 ) {
+            error("Please commit your changes or stash them before you can "+command);
+            return;
+        }
+        if ( !confirm("This operation might add, remove and modify some files in the working directory") ) {
+            return;
+        }
+        CommitNode parent = commitNode.get(parentId);
+        String from = revert ? node.treeHash : parent.treeHash;
+        String to = revert ? parent.treeHash : node.treeHash;
+        String name = node.hash.substring(0, Math.min(7, node.hash.length()));
+        PathFilter sparse = loadSparse();
+        ArrayList<String> conflicted = new ArrayList<String>();
+        for ( Tree.Change c : Tree.diff(from, to) ) {
+            String[] ours = Tree.find(head_pointer.treeHash, c.path);
+            String oursHash = ours == null ? null : ours[0];
+            String before = c.before == null ? null : c.before[0];
+            String after = c.after == null ? null : c.after[0];
+            if ( sameContent(oursHash, after) ) {
+                continue;
+            }
+            try {
+                if ( sameContent(oursHash, before) ) {
+                    // the head has the old version, the new one is taken as it is
+                    if ( c.after != null ) {
+                        stageFromStore(c.path, c.after[0], c.after[1], sparse);
+                    } else {
+                        if ( sparse == null || sparse.covers(c.path) ) {
+                            Files.deleteIfExists(new File(c.path).toPath());
+                        }
+                        removal.add(c.path);
+                    }
+                } else if ( ours == null || c.after == null ) {
+                    // one side removed the file and the other changed it
+                    if ( c.after != null ) {
+                        restoreFile(c.after[1], new File(c.path+".conflicted"));
+                    }
+                    conflicted.add(c.path);
+                } else {
+                    byte[] oursContent = ContentCache.bytes(ours[0], ours[1]);
+                    byte[] theirsContent = ContentCache.bytes(c.after[0], c.after[1]);
+                    byte[] baseContent = c.before == null ? new byte[0] : ContentCache.bytes(c.before[0], c.before[1]);
+                    if ( LineDiff.isBinary(oursContent) || LineDiff.isBinary(theirsContent) || LineDiff.isBinary(baseContent) ) {
+                        restoreFile(c.after[1], new File(c.path+".conflicted"));
+                        conflicted.add(c.path);
+                        continue;
+                    }
+                    LineDiff.Merged merged = LineDiff.merge3(
+                        c.before == null ? new ArrayList<String>() : ContentCache.lines(c.before[0], c.before[1]),
+                        ContentCache.lines(ours[0], ours[1]), ContentCache.lines(c.after[0], c.after[1]),
+                        "HEAD", name);
+                    StringBuilder text = new StringBuilder();
+                    for ( String line : merged.lines ) {
+                        text.append(line).append('\n');
+                    }
+                    // keep a missing newline at the end of the file of the head
+                    if ( text.length() > 0 && oursContent.length > 0 && oursContent[oursContent.length - 1] != '\n' ) {
+                        text.setLength(text.length() - 1);
+                    }
+                    File file = new File(c.path);
+                    if ( file.getParentFile() != null ) {
+                        file.getParentFile().mkdirs();
+                    }
+                    Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+                    if ( merged.conflicts > 0 ) {
+                        conflicted.add(c.path);
+                    } else if ( !staged.contains(c.path) ) {
+                        staged.add(c.path);
+                    }
+                }
+            } catch (IOException e) {
+                error("Cannot write the file <"+c.path+">");
+                return;
+            }
+        }
+        if ( !conflicted.isEmpty() ) {
+            System.out.println("Conflicts in:");
+            for ( String path : conflicted ) {
+                System.out.println(path);
+            }
+            System.out.println("Fix them, then add and commit them");
+            return;
+        }
+        if ( staged.isEmpty() && removal.isEmpty() && stagedEntries.isEmpty() ) {
+            System.out.println("Nothing to "+command+", the head already has the change");
+            return;
+        }
+        commit(revert ? "Revert \""+node.commitMessage+"\"" : node.commitMessage);
+    }
+
+    private void writeReport(MergePlan plan) {
+        if ( reportFile == null ) {
+            return;
+        }
+        try {
+            plan.writeReport(reportFile, dryRun);
+        } catch (IOException e) {
+            error("Cannot write the report <"+reportFile+">");
+        }
+    }
+
+    /* where the messages and errors of a command go: stdout, or stderr when --report prints
+    the JSON report there, so the report can be read as it is */
+    private PrintStream messages() {
+        return "-".equals(reportFile) ? System.err : System.out;
+    }
+
+    /* ask before an operation that changes the working directory. --yes and --no-prompt answer
+    for the user. When the input ends without an answer the operation goes ahead, as it always
+    has */
+    private boolean confirm(String warning) {
+        if ( assumeYes ) {
+            return true;
+        }
+        PrintStream out = messages();
+        out.println(warning);
+        out.println("Do you want to continue, Y / N ?");
+        Scanner scanner = new Scanner(System.in);
+        while ( scanner.hasNextLine() ) {
+            String s = scanner.nextLine();
             if ( s != null && ( s.toLowerCase().equals("y") || s.toLowerCase().equals("yes") )) {
-                flag = true;
-                break;
+                return true;
             }
             else if ( s != null && ( s.toLowerCase().equals("n") || s.toLowerCase().equals("no")) ) {
-                flag = false;
-                break;
+                return false;
             }
             else {
-                System.out.println("Do you want to continue, Y / N ?");
+                out.println("Do you want to continue, Y / N ?");
             }
         }
-        
-        if ( flag ) {
-            // Do the merge task here
+        return true;
+    }
 
-            // first find the common ancestor of two branches. Starting from either of the branches 
-            CommitNode commonNode = head_pointer;
-            while ( commonNode.parentId > 0 ) {
-                commonNode = commitNode.get(commonNode.parentId);
-                if ( commonNode.inBranch.contains(branchName) && commonNode.inBranch.contains(currBranch)) {
-                    break;
-                }
+    /* take the options of merge, rebase and reset out of the arguments: --yes (or -y and
+    --no-prompt), --dry-run, and --report[=<file>], which prints the report when no file is
+    given */
+    private String[] readOptions(String[] args) {
+        assumeYes = false;
+        dryRun = false;
+        reportFile = null;
+        ArrayList<String> rest = new ArrayList<String>();
+        for ( String arg : args ) {
+            if ( arg.equals("--yes") || arg.equals("-y") || arg.equals("--no-prompt") ) {
+                assumeYes = true;
+            } else if ( arg.equals("--dry-run") ) {
+                dryRun = true;
+            } else if ( arg.equals("--report") ) {
+                reportFile = "-";
+            } else if ( arg.startsWith("--report=") ) {
+                reportFile = arg.substring("--report=".length());
+            } else {
+                rest.add(arg);
             }
-            // now commonNode is the node with the common ancestor 
-            CommitNode toMerge = branchMap.get(branchName);
-            CommitNode currNode = head_pointer; 
-            File oldFile;
-            File newFile;
-            File newFile2;
-            StandardCopyOption[] options = new StandardCopyOption[]{
-                StandardCopyOption.REPLACE_EXISTING,
-                StandardCopyOption.COPY_ATTRIBUTES
-            }; 
-            // Here is the logic of how merge works
-            for (String item : toMerge.addressBook.keySet()) {
-                if (currNode.addressBook.containsKey(item)) {
-                    // This file exists in both curr and merge. Compare it
-
-                    try {
-                        oldFile = new File(".gitlet/"+commonNode.commitId+"/"+item);
-                        newFile = new File(".gitlet/"+toMerge.commitId+"/"+item);
-                        newFile2 = new File(".gitlet/"+head_pointer.commitId+"/"+item);
-                        if (!FileUtils.contentEquals(oldFile,newFile)&& 
-                            FileUtils.contentEquals(oldFile,newFile2)) {
-                            // copy merged to curr 
-                            try {
-                                Files.copy(newFile.toPath(), newFile2.toPath(), options);
-                                newFile2 = new File(item);
-                                Files.copy(newFile.toPath(), newFile2.toPath(), options);
-                            } catch (IOException e) {
-                                System.out.println("Cannot copy the file <"+item+">");
-                            }
-                        }
+        }
+        return rest.toArray(new String[rest.size()]);
+    }
 
-                        else if (!FileUtils.contentEquals(oldFile,newFile)&& 
-                            !FileUtils.contentEquals(oldFile,newFile2) && !FileUtils.contentEquals(newFile,newFile2)){
-                            // created a conflicted version in curr
-                            try {
-                                newFile2 = new File(".gitlet/"+head_pointer.commitId+"/"+item+".conflicted");
-                                Files.copy(newFile.toPath(), newFile2.toPath(), options);
-                                newFile2 = new File(item+".conflicted");
-                                Files.copy(newFile.toPath(), newFile2.toPath(), options);
-                            } catch (IOException e) {
-                                System.out.println("Cannot copy the file <"+item+">");
-                            }
-                        }
-                    } catch(IOException e) {
-                        System.out.println("Exceptions while comparing two files in git add");
-                    }
-                }
-                else {
-                    // Add this file to curr
-                    oldFile = new File(".gitlet/"+toMerge.commitId+"/"+item);
-                    newFile = new File(".gitlet/"+head_pointer.commitId+"/"+item);
-                    try {
-                        Files.copy(oldFile.toPath(), newFile.toPath(), options);
-                        newFile = new File(item);
-                        Files.copy(oldFile.toPath(), newFile.toPath(), options);
-                    } catch (IOException e) {
-                        System.out.println("Cannot copy the file <"+item+">");
-                    }
-                }
-            }
-            for (String item2 : currNode.addressBook.keySet()) {
-                if (!toMerge.addressBook.containsKey(item2)) {
-                    // Remove this file from curr
-                    oldFile = new File(item2);
-                    newFile = new File(".gitlet/"+head_pointer.commitId+"/"+item2);
-                    try {
-                        Files.deleteIfExists(newFile.toPath());
-                        Files.deleteIfExists(oldFile.toPath());
-                    } catch (IOException e) {
-                        System.out.println("Cannot delete the file <"+item2+">");
-                    }
-                }
-            
+    /* stage the stored version of a file. Inside the sparse checkout it is written to the
+    working directory and staged like an added file, outside it is staged without a copy */
+    private void stageFromStore(String fileName, String hash, String location, PathFilter sparse) {
+        if ( sparse != null && !sparse.covers(fileName) ) {
+            stagedEntries.put(fileName, new String[] { hash, location });
+            return;
+        }
+        try {
+            restoreFile(location, new File(fileName));
+            if (!staged.contains(fileName)) {
+                staged.add(fileName);
             }
+        } catch (IOException e) {
+            error("Cannot copy the file <"+fileName+">");
         }
     }
 
+    private static boolean sameContent(String hash1, String hash2) {
+        return hash1 == null ? hash2 == null : hash1.equals(hash2);
+    }
+
 
      /*find the split point of the current branch and the given branch, then snaps off the 
     current branch at this point, then reattaches the current branch to the head of the given branch. */
     public void rebase(String branchName) {
         // copy the CommitNode and enter new time stamp and new commit id and parent, child ptr.
         if ( currBranch.equals(branchName) ) {
-            System.out.println("Cannot rebase a branch on itself");
+            error("Cannot rebase a branch on itself");
             return;
         }
         if ( !branchMap.containsKey(branchName) ) {
-            System.out.println("The branch <"+branchName+"> does not exist");
+            error("The branch <"+branchName+"> does not exist");
             return;
         }
         if ( branchMap.get(branchName).commitId == head_pointer.commitId ) {
@@ -532,41 +1444,16 @@ public class Gitlet implements Serializable {
                     System.out.println(removal.get(j));
                 }
             }
-            System.out.println("Please commit your changes or stash them before you can merge");
+            error("Please commit your changes or stash them before you can merge");
             return;
         }
 
-        boolean flag = true;
-        
-        System.out.println("This operation might add, remove and modify some files in the working directory");
-        System.out.println("Do you want to continue, Y / N ?");
-        Scanner scanner = new Scanner(System.in);
-        while ( scanner.hasNextLine() ) {
-            String s = scanner.nextLine();
-            if ( s != null && ( s.toLowerCase().equals("y") || s.toLowerCase().equals("yes") )) {
-                flag = true;
-                break;
-            }
-            else if ( s != null && ( s.toLowerCase().equals("n") || s.toLowerCase().equals("no")) ) {
-                flag = false;
-                break;
-            }
-            else {
-                System.out.println("Do you want to continue, Y / N ?");
-            }
-        }
-        
-        if ( flag ) {
+        if ( confirm("This operation might add, remove and modify some files in the working directory") ) {
             // Do the rebase task here
 
             // first find the common ancestor of two branches. Starting from either of the branches 
-            CommitNode commonNode = head_pointer;
-            while ( commonNode.parentId > 0 ) {
-                commonNode = commitNode.get(commonNode.parentId);
-                if ( commonNode.inBranch.contains(branchName) && commonNode.inBranch.contains(currBranch)) {
-                    break;
-                }
-            }
+            CommitNode commonNode = commitNode.get(graph().mergeBase(head_pointer.commitId,
+                branchMap.get(branchName).commitId));
             // now commonNode is the node with the common ancestor 
             //TODO
         }
@@ -592,59 +1479,49 @@ public class Gitlet implements Serializable {
     /*Restores the given file in the working directory to its state 
     at the commit at the head of the current branch.*/
     private void checkout(String fileName){
-        if ( !head_pointer.addressBook.containsKey(fileName) ) {
-            System.out.println("File does not exist in the most recent commit, or no such branch exists");
+        String[] entry = Tree.find(head_pointer.treeHash, fileName);
+        if ( entry == null ) {
+            error("File does not exist in the most recent commit, or no such branch exists");
             return;
         }
-        File oldFile = new File(".gitlet/"+head_pointer.commitId+"/"+fileName);
+        File oldFile = store(entry[1]);
         File newFile = new File(fileName);
         if ( oldFile.exists() && newFile.exists() ) {
-
-            StandardCopyOption[] options = new StandardCopyOption[]{
-                StandardCopyOption.REPLACE_EXISTING,
-                StandardCopyOption.COPY_ATTRIBUTES
-            };
             try {
-                Files.copy(oldFile.toPath(), newFile.toPath(), options);
+                restoreFile(entry[1], newFile);
             } catch (IOException e) {
-                System.out.println("Cannot copy the file <"+fileName+">");
+                error("Cannot copy the file <"+fileName+">");
             }
         
         }
         else {
-            System.out.println("File <"+fileName+"> has been deleted from the working directory");
+            error("File <"+fileName+"> has been deleted from the working directory");
         }
     }
 
     /*Restores the given file in the working directory to its state at the given commit.*/
     private void checkout(String commitId, String fileName) {
-        int id = Integer.parseInt(commitId);
-        if ( id < 0 || id >= commitNode.size() ) {
-            System.out.println("No commit with that id exists");
+        CommitNode node = findCommit(commitId);
+        if ( node == null ) {
             return;
         }
-        CommitNode node = commitNode.get(id);
-        if ( !node.addressBook.containsKey(fileName) ) {
-            System.out.println("File does not exist in this commit");
+        String[] entry = Tree.find(node.treeHash, fileName);
+        if ( entry == null ) {
+            error("File does not exist in this commit");
             return;
         }
-        File oldFile = new File(".gitlet/"+node.commitId+"/"+fileName);
+        File oldFile = store(entry[1]);
         File newFile = new File(fileName);
         if ( oldFile.exists() && newFile.exists() ) {
-            
-            StandardCopyOption[] options = new StandardCopyOption[]{
-                StandardCopyOption.REPLACE_EXISTING,
-                StandardCopyOption.COPY_ATTRIBUTES
-            };
             try {
-                Files.copy(oldFile.toPath(), newFile.toPath(), options);
+                restoreFile(entry[1], newFile);
             } catch (IOException e) {
-                System.out.println("Cannot copy the file <"+fileName+">");
+                error("Cannot copy the file <"+fileName+">");
             }
         
         }
         else {
-            System.out.println("File <"+fileName+"> has been deleted from the working directory");
+            error("File <"+fileName+"> has been deleted from the working directory");
         }
     }
 
@@ -652,95 +1529,82 @@ public class Gitlet implements Serializable {
     given branch. Considers the given branch to now be the current branch.*/
     private void checkoutBranch(String branchName) {
         if ( !branchMap.containsKey(branchName) ) {
-            System.out.println("File does not exist in the most recent commit, or no such branch exists");
+            error("File does not exist in the most recent commit, or no such branch exists");
             return;
         }
         if ( currBranch.equals(branchName) ) {
             System.out.println("Already in branch <"+branchName+">");
             return;
         }
-        // restore all files in the working directory 
-        CommitNode node = branchMap.get(branchName);
-        HashSet<String> rm = new HashSet<String>();
-        for ( String s : head_pointer.addressBook.keySet() ) {
-            if ( !node.addressBook.containsKey(s) ) {
-                rm.add(s);
-            }
-        }
-
-        File oldFile;
-        File newFile;
-        StandardCopyOption[] options = new StandardCopyOption[]{
-            StandardCopyOption.REPLACE_EXISTING,
-            StandardCopyOption.COPY_ATTRIBUTES
-        }; 
-        // copy all the files from commit node to working directory 
-        for (String key : node.addressBook.keySet() ) {
-            oldFile = new File(".gitlet/"+node.commitId+"/"+key);
-            newFile = new File(key);
-            try {
-                Files.copy(oldFile.toPath(), newFile.toPath(), options);
-            } catch (IOException e) {
-                System.out.println("Cannot copy the file <"+key+">");
-            }
-        }
-        // remove deleted files from the working directory
-        for ( String r : rm ) {
-            newFile = new File(r);
-            try {
-                Files.deleteIfExists(newFile.toPath());
-            } catch (IOException e) {
-                System.out.println("Cannot delete the file <"+r+">");
-            }
+        String folder = checkedOutElsewhere(branchName);
+        if ( folder != null ) {
+            error("The branch <"+branchName+"> is checked out in <"+folder+">");
+            return;
         }
+        CommitNode node = branchMap.get(branchName);
+        switchFiles(node);
 
+        Reflog.append(Reflog.HEAD, head_pointer.commitId, node.commitId, Reflog.CHECKOUT);
         head_pointer = branchMap.get(branchName);
         currBranch = branchName;
         System.out.println("Switched to branch <"+branchName+">");
 
     }
 
+    /* make the working directory match the commit instead of the head. Only the files that
+    differ between the two commits are written or deleted, and directories with the same tree
+    hash in both are skipped without being read. Returns the number of files changed */
+    private int switchFiles(CommitNode node) {
+        final ArrayList<String[]> copies = new ArrayList<String[]>();
+        final int[] deleted = { 0 };
+        Tree.diff(head_pointer.treeHash, node.treeHash, loadSparse(), new Tree.Visitor() {
+            public void visit(Tree.Change c) {
+                if ( c.after != null ) {
+                    // copy the file from commit node to working directory
+                    copies.add(new String[] { c.after[1], c.path });
+                } else {
+                    // remove deleted files from the working directory
+                    try {
+                        Files.deleteIfExists(new File(c.path).toPath());
+                        deleted[0]++;
+                    } catch (IOException e) {
+                        error("Cannot delete the file <"+c.path+">");
+                    }
+                }
+            }
+        });
+        restoreFiles(copies);
+        return copies.size() + deleted[0];
+    }
+
     /*create a new branch on current commitnode using the given branchname*/
     private void branch(String branchName) {
         if ( branchMap.containsKey(branchName) ) {
-            System.out.println("The branch <"+branchName+"> already exists");
+            error("The branch <"+branchName+"> already exists");
             return;
         }
-        CommitNode node = head_pointer;
-        node.inBranch.add(branchName);
-        commitNode.set(node.commitId, node);
-        int par = node.parentId;
-        head_pointer = node;
-        while ( par > 0) {
-            node = commitNode.get(par);
-            node.inBranch.add(branchName);
-            par = node.parentId;
-            commitNode.set(node.commitId, node);
-        }
+        // the commits of a branch are the parent chain of its head, nothing else is marked
         branchMap.put(branchName, head_pointer);
+        Reflog.append(branchName, -1, head_pointer.commitId, Reflog.BRANCH);
     }
 
     /*remove the branchname key in the hashmap of branches*/
     private void rmbranch(String branchName){
         if ( !branchMap.containsKey(branchName) ) {
-            System.out.println("The branch <"+branchName+"> does not exist");
+            error("The branch <"+branchName+"> does not exist");
             return;
         }
         if ( currBranch.equals(branchName) ) {
-            System.out.println("Cannot remove the current branch");
+            error("Cannot remove the current branch");
             return;
         }
-        branchMap.remove(branchName);
-        // bad runtime. explore all the commit nodes in the tree and remove inBranch items
-        // to improve
-        CommitNode node;
-        for ( int i = 0; i <commitNode.size(); i++) {
-            node = commitNode.get(i);
-            if ( node.inBranch.contains(branchName)) {
-                node.inBranch.remove(branchName);
-                commitNode.set(node.commitId,node);
-            }
+        String folder = checkedOutElsewhere(branchName);
+        if ( folder != null ) {
+            error("The branch <"+branchName+"> is checked out in <"+folder+">");
+            return;
         }
+        branchMap.remove(branchName);
+        Reflog.remove(branchName);
     }
 
     /*print all information*/
@@ -750,175 +1614,1388 @@ public class Gitlet implements Serializable {
         }
     }
 
-    /*print the current status including branch, removal, and stage*/
-    private void status() {
-        System.out.println("=== Branches ===");
-        System.out.println("On branch "+currBranch);
-        int size = branchMap.size();
-        if ( size > 1) {
-            
-            System.out.println("Other branches: ");
-            for (String s : branchMap.keySet()) {
-                if ( !s.equals(currBranch) )
-                    System.out.println(s);
-            }
+    /*print every line of the file in the head commit with the commit that introduced it. The
+    parent chain is walked one version of the file at a time and the walk stops as soon as every
+    line has its commit. The result for a version is cached under its content hash and the
+    commit that introduced it, so blaming it again, or blaming a later commit, reuses it*/
+    private void blame(String fileName) {
+        String[] entry = Tree.find(head_pointer.treeHash, fileName);
+        if ( entry == null ) {
+            error("File does not exist in the most recent commit");
+            return;
         }
-        System.out.println();
-
-        if ( staged.size() > 0 ) {
-            System.out.println("=== Staged Files ===");
-            for ( int i = 0; i < staged.size(); i++) {
-                System.out.println(staged.get(i));
-            }
-            System.out.println();
+        List<String> lines;
+        List<String> currLines;
+        try {
+            lines = ContentCache.lines(entry[0], entry[1]);
+        } catch (IOException e) {
+            error("Cannot read the file <"+fileName+">");
+            return;
         }
-        if ( removal.size() > 0 ) {
-            System.out.println("=== Files Marked for Removal ===");
-            for ( int j = 0; j < removal.size(); j++) {
-                System.out.println(removal.get(j));
-            }
-            System.out.println();
+        if ( lines.isEmpty() ) {
+            // no line to blame
+            return;
         }
-
-        if ( staged.size() == 0 && removal.size() == 0) {
-            System.out.println("Nothing to commit. Working directory clean");
+        // owner[i]: commit of line i of the head version. index[i]: where that line is in the
+        // version being looked at, while it has no owner yet
+        int[] owner = new int[lines.size()];
+        int[] index = new int[lines.size()];
+        Arrays.fill(owner, -1);
+        int pending = lines.size();
+        for ( int i = 0; i < index.length; i++ ) {
+            index[i] = i;
         }
-    }
-
-    /*print out the information using "print" method, one by one in the commitnode*/
-    private void log() {
-        CommitNode currNode = head_pointer;
-        while ( currNode != null ) {
-            displayMessage(currNode);
-            int parent = currNode.parentId;
-            if ( parent == currNode.commitId || parent < 0) {
-                // no parent commit node
+        currLines = lines;
+        CommitNode curr = head_pointer;
+        String currHash = entry[0];
+        CommitNode headVersion = null;
+        while ( pending > 0 ) {
+            // go back to the commit that introduced this version
+            CommitNode parent = parentOf(curr);
+            while ( parent != null && (!PathBloom.mightContain(curr.changedPaths, fileName)
+                    || currHash.equals(Tree.hashAt(parent.treeHash, fileName))) ) {
+                curr = parent;
+                parent = parentOf(curr);
+            }
+            if ( headVersion == null ) {
+                headVersion = curr;
+            }
+            int[] cached = readBlame(currHash, curr.commitId);
+            if ( cached != null && cached.length == currLines.size() ) {
+                for ( int i = 0; i < owner.length; i++ ) {
+                    if ( owner[i] < 0 ) {
+                        owner[i] = cached[index[i]];
+                    }
+                }
+                break;
+            }
+            String[] parentEntry = parent == null ? null : Tree.find(parent.treeHash, fileName);
+            List<String> parentLines = new ArrayList<String>();
+            if ( parentEntry != null ) {
+                try {
+                    parentLines = ContentCache.lines(parentEntry[0], parentEntry[1]);
+                } catch (IOException e) {
+                    error("Cannot read the file <"+fileName+">");
+                    return;
+                }
+            }
+            int[] match = LineDiff.match(currLines, parentLines);
+            for ( int i = 0; i < owner.length; i++ ) {
+                if ( owner[i] < 0 ) {
+                    if ( match[index[i]] < 0 ) {
+                        owner[i] = curr.commitId;
+                        pending--;
+                    } else {
+                        index[i] = match[index[i]];
+                    }
+                }
+            }
+            if ( parentEntry == null ) {
                 break;
             }
-            currNode = commitNode.get(parent);
+            curr = parent;
+            currHash = parentEntry[0];
+            currLines = parentLines;
         }
-    }
+        writeBlame(entry[0], headVersion.commitId, owner);
 
-    private void displayMessage(CommitNode node) {
-        if (node==null) return;
-        System.out.println();
-        System.out.println("====");
-        System.out.println("Commit "+node.commitId+".");
-        System.out.println(node.time);
-        System.out.println(node.commitMessage);
+        for ( int i = 0; i < lines.size(); i++ ) {
+            CommitNode node = commitNode.get(owner[i]);
+            System.out.println(String.format("%-6d %s %5d) %s", node.commitId, formatTime(node.time), i + 1, lines.get(i)));
+        }
+    }
 
+    /* the parent of the commit, or null for the initial commit */
+    private CommitNode parentOf(CommitNode node) {
+        int parent = graph().parent(node.commitId);
+        return parent < 0 ? null : commitNode.get(parent);
     }
 
-    /*print the information of current node
-        the same as displayMasseage()*/ 
-    private void print(CommitNode cn) {
-      // currentlly replaced by displayMessage method
+    private static int[] readBlame(String hash, int commitId) {
+        File file = store(BLAME_DIR+hash+"-"+commitId);
+        if ( !file.exists() ) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            return (int[]) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            return null;
+        }
+    }
 
+    private static void writeBlame(String hash, int commitId, int[] owner) {
+        File file = store(BLAME_DIR+hash+"-"+commitId);
+        if ( file.exists() ) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+                out.writeObject(owner);
+            }
+        } catch (IOException e) {
+            // the cache is only an optimization
+            file.delete();
+        }
     }
 
-     /*reset the file state to the given commit id and move the head to the given node*/
-    public void reset(String commitId) {
-        int id = Integer.parseInt(commitId);
-        if ( id < 0 || id >= commitNode.size() ) {
-            System.out.println("No such commit exists");
+    /*show the changes between two commits, or between a commit (the head by default) and the
+    working directory, as unified diffs. A deleted and an added file with similar content are
+    shown as a rename*/
+    private void diff(String[] ids) {
+        if ( ids.length > 2 ) {
+            error("Usage: diff [<commit id> [<commit id>]]");
             return;
-        }  
-        if ( !commitNode.get(id).inBranch.contains(currBranch) ) {
-            System.out.println("This commit is not from the current branch");
-            return;
-        }
-        boolean flag = true;
-        if ( removal.size() > 0 || staged.size() > 0) {
-            System.out.println("This operation will abort all the staged files and removed files");
-            System.out.println("Do you want to continue, Y / N ?");
-            Scanner scanner = new Scanner(System.in);
-            while ( scanner.hasNextLine() ) {
-                String s = scanner.nextLine();
-                if ( s != null && ( s.toLowerCase().equals("y") || s.toLowerCase().equals("yes") )) {
-                    flag = true;
-                    break;
-                }
-                else if ( s != null && ( s.toLowerCase().equals("n") || s.toLowerCase().equals("no")) ) {
-                    flag = false;
-                    break;
-                }
-                else {
-                    System.out.println("Do you want to continue, Y / N ?");
+        }
+        CommitNode from = ids.length == 0 ? head_pointer : findCommit(ids[0]);
+        CommitNode to = ids.length == 2 ? findCommit(ids[1]) : null;
+        if ( from == null || (ids.length == 2 && to == null) ) {
+            return;
+        }
+        ArrayList<Tree.Change> changes = to == null ? workingChanges(from) : Tree.diff(from.treeHash, to.treeHash);
+
+        // pair deleted and added files: same hash first, then similar content
+        ArrayList<Tree.Change> deleted = new ArrayList<Tree.Change>();
+        ArrayList<Tree.Change> added = new ArrayList<Tree.Change>();
+        for ( Tree.Change c : changes ) {
+            if ( c.after == null ) {
+                deleted.add(c);
+            } else if ( c.before == null ) {
+                added.add(c);
+            }
+        }
+        HashMap<Tree.Change, Tree.Change> renamedTo = new HashMap<Tree.Change, Tree.Change>();
+        HashMap<Tree.Change, Integer> similarity = new HashMap<Tree.Change, Integer>();
+        HashMap<String, Tree.Change> addedByHash = new HashMap<String, Tree.Change>();
+        for ( Tree.Change c : added ) {
+            addedByHash.put(c.after[0], c);
+        }
+        ArrayList<Tree.Change> restDeleted = new ArrayList<Tree.Change>();
+        for ( Tree.Change c : deleted ) {
+            Tree.Change same = addedByHash.remove(c.before[0]);
+            if ( same != null ) {
+                renamedTo.put(c, same);
+                similarity.put(c, 100);
+            } else {
+                restDeleted.add(c);
+            }
+        }
+        ArrayList<Tree.Change> restAdded = new ArrayList<Tree.Change>(addedByHash.values());
+        if ( !restDeleted.isEmpty() && !restAdded.isEmpty() ) {
+            ArrayList<Fingerprint> oldPrints = new ArrayList<Fingerprint>();
+            ArrayList<Fingerprint> newPrints = new ArrayList<Fingerprint>();
+            for ( Tree.Change c : restDeleted ) {
+                oldPrints.add(fingerprint(c.before));
+            }
+            for ( Tree.Change c : restAdded ) {
+                newPrints.add(fingerprint(c.after));
+            }
+            for ( int[] pair : Fingerprint.pairs(oldPrints, newPrints, RENAME_SCORE) ) {
+                renamedTo.put(restDeleted.get(pair[0]), restAdded.get(pair[1]));
+                similarity.put(restDeleted.get(pair[0]), pair[2]);
+            }
+        }
+        HashSet<Tree.Change> renameTargets = new HashSet<Tree.Change>(renamedTo.values());
+
+        for ( Tree.Change c : changes ) {
+            if ( renameTargets.contains(c) ) {
+                continue;
+            }
+            Tree.Change target = renamedTo.get(c);
+            try {
+                if ( target != null ) {
+                    printDiff(c.path, target.path, c.before, target.after, similarity.get(c));
+                } else {
+                    printDiff(c.path, c.path, c.before, c.after, -1);
                 }
+            } catch (IOException e) {
+                error("Cannot read the file <"+c.path+">");
             }
         }
-        if ( flag ) {
-            CommitNode temp_head_pointer = commitNode.get(id);
-            removeAllChildrenFromCurrBranch(temp_head_pointer, currBranch);
-            // now copy all the files from commitNode to working directory 
-            File oldFile;
-            File newFile;
-            StandardCopyOption[] options = new StandardCopyOption[]{
-                StandardCopyOption.REPLACE_EXISTING,
-                StandardCopyOption.COPY_ATTRIBUTES
-            };
-            for ( String key : temp_head_pointer.addressBook.keySet() ) {
-            
-                oldFile = new File(".gitlet/"+id+"/"+key);
-                newFile = new File(key);
-                if ( oldFile.exists()) {
-                    try {
-                        Files.copy(oldFile.toPath(), newFile.toPath(), options);
-                    } catch (IOException e) {
-                        System.out.println("Cannot copy the file <"+key+">");
-                    }
-                }   
-            } // end for loop
-
-            // remove all the files that are the curr commit but not in the previous
-            for ( String r : head_pointer.addressBook.keySet() ) {
-                if ( !temp_head_pointer.addressBook.containsKey(r) ) {
-                    
-                    newFile = new File(r);
-                    try {
-                        Files.deleteIfExists(newFile.toPath());
-                    } catch (IOException e) {
-                        System.out.println("Cannot delete the file <"+r+">");
-                    }
+    }
+
+    /* the tracked and staged files that differ between the commit and the working directory.
+    The location of a working file is its own path */
+    private ArrayList<Tree.Change> workingChanges(CommitNode node) {
+        Map<String, String> hashes = node.getHashBook();
+        Map<String, String> book = node.getAddressBook();
+        TreeSet<String> paths = new TreeSet<String>(hashes.keySet());
+        paths.addAll(staged);
+        ArrayList<Tree.Change> changes = new ArrayList<Tree.Change>();
+        for ( String path : paths ) {
+            String[] before = hashes.containsKey(path) ? new String[] { hashes.get(path), book.get(path) } : null;
+            String[] after = null;
+            File file = new File(path);
+            if ( file.isFile() && !removal.contains(path) ) {
+                try {
+                    after = new String[] { hashFile(file), path };
+                } catch (IOException e) {
+                    error("Cannot read the file <"+path+">");
+                    continue;
                 }
-            }  
-            head_pointer = temp_head_pointer;
+            }
+            if ( !sameContent(before == null ? null : before[0], after == null ? null : after[0]) ) {
+                changes.add(new Tree.Change(path, before, after));
+            }
         }
+        return changes;
     }
 
-    public void removeAllChildrenFromCurrBranch(CommitNode node, String branch) {
-        // helper method for reset()
-        if ( node.childs == null ) {
-            return;
+    /* the content of one side of a change, {hash, location}. A stored version is read from
+    the store through the cache. A working file, whose location is its path, is read from the
+    current working directory as it is now, and is not cached since it can still change */
+    private static byte[] content(String[] entry) throws IOException {
+        if ( isWorkingFile(entry[1]) ) {
+            return Files.readAllBytes(new File(entry[1]).toPath());
         }
-        CommitNode childNode;
-        for ( int i = 0; i < node.childs.size(); i++) {
-            childNode = node.childs.get(i);
-            if ( childNode.inBranch.contains(branch) ) {
-                
-                CommitNode oldNode = commitNode.get(childNode.commitId);
-                oldNode.inBranch.remove(branch);
-                commitNode.set(oldNode.commitId, oldNode);
+        return ContentCache.bytes(entry[0], entry[1]);
+    }
 
-                // if you remove a node from a commit tree the commit id of other nodes would change
-                // and this is no good for our design
-                /*
-                else {
-                    CommitNode newNode = commitNode.get(node.commitId);
-                    newNode.childs.remove(childNode);
-                    commitNode.set(newNode.commitId, newNode);
-                    if ( childNode.childs == null ) {
-                        commitNode.remove(childNode.commitId);
-                    }
-        
-                }*/
-                removeAllChildrenFromCurrBranch(childNode, branch);
+    private static List<String> lines(String[] entry) throws IOException {
+        return isWorkingFile(entry[1]) ? LineDiff.lines(content(entry)) : ContentCache.lines(entry[0], entry[1]);
+    }
 
+    /* stored locations are all in .gitlet, which never holds a working file */
+    private static boolean isWorkingFile(String location) {
+        return !location.startsWith(GITLET_DIR);
+    }
+
+    /* entry is {hash, location} */
+    private static Fingerprint fingerprint(String[] entry) {
+        try {
+            if ( !LineDiff.isBinary(content(entry)) ) {
+                return new Fingerprint(lines(entry));
             }
-            
+        } catch (IOException e) {
+            System.out.println("Cannot read the file <"+entry[1]+">");
         }
-        
+        return new Fingerprint(new ArrayList<String>());
+    }
 
+    private static void printDiff(String oldPath, String newPath, String[] before, String[] after, int score)
+            throws IOException {
+        System.out.println("diff --gitlet a/"+oldPath+" b/"+newPath);
+        if ( before == null ) {
+            System.out.println("new file");
+        } else if ( after == null ) {
+            System.out.println("deleted file");
+        } else if ( score >= 0 ) {
+            System.out.println("similarity index "+score+"%");
+            System.out.println("rename from "+oldPath);
+            System.out.println("rename to "+newPath);
+        }
+        if ( before != null && after != null && before[0].equals(after[0]) ) {
+            return;
+        }
+        byte[] oldContent = before == null ? new byte[0] : content(before);
+        byte[] newContent = after == null ? new byte[0] : content(after);
+        if ( LineDiff.isBinary(oldContent) || LineDiff.isBinary(newContent) ) {
+            System.out.println("Binary files a/"+oldPath+" and b/"+newPath+" differ");
+            return;
+        }
+        List<String> oldLines = before == null ? new ArrayList<String>() : lines(before);
+        List<String> newLines = after == null ? new ArrayList<String>() : lines(after);
+        System.out.println(before == null ? "--- /dev/null" : "--- a/"+oldPath);
+        System.out.println(after == null ? "+++ /dev/null" : "+++ b/"+newPath);
+        System.out.print(LineDiff.unified(oldLines, newLines, DIFF_CONTEXT));
+    }
+
+    /* print the lines that match the pattern in the files of the head commit, of the given
+    commit, or of every commit with --all. -i ignores case, -l only prints the files */
+    private void grep(String[] args) {
+        String usage = "Usage: grep [-i] [-l] <pattern> [<commit id or branch> | --all]";
+        boolean ignoreCase = false;
+        boolean namesOnly = false;
+        boolean all = false;
+        ArrayList<String> rest = new ArrayList<String>();
+        for ( String arg : args ) {
+            if ( arg.equals("-i") ) {
+                ignoreCase = true;
+            } else if ( arg.equals("-l") ) {
+                namesOnly = true;
+            } else if ( arg.equals("--all") ) {
+                all = true;
+            } else {
+                rest.add(arg);
+            }
+        }
+        if ( rest.isEmpty() || rest.size() > 2 || (all && rest.size() > 1) ) {
+            error(usage);
+            return;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(rest.get(0), ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+        } catch (java.util.regex.PatternSyntaxException e) {
+            error("Invalid pattern <"+rest.get(0)+">");
+            return;
+        }
+        ArrayList<CommitNode> commits = new ArrayList<CommitNode>();
+        if ( all ) {
+            // newest first, like global-log
+            for ( int i = commitNode.size() - 1; i >= 0; i-- ) {
+                commits.add(commitNode.get(i));
+            }
+        } else if ( rest.size() == 2 ) {
+            CommitNode node = branchMap.containsKey(rest.get(1)) ? branchMap.get(rest.get(1)) : findCommit(rest.get(1));
+            if ( node == null ) {
+                return;
+            }
+            commits.add(node);
+        } else {
+            commits.add(head_pointer);
+        }
+
+        Grep grep = new Grep(pattern);
+        for ( CommitNode node : commits ) {
+            grep.addTree(node.treeHash);
+        }
+        try {
+            grep.scan(IO_THREADS);
+        } catch (IOException e) {
+            error("Cannot search the stored files: "+e.getMessage());
+            return;
+        }
+        for ( CommitNode node : commits ) {
+            // with --all every line says which commit it comes from
+            String prefix = all ? node.hash.substring(0, 7)+":" : "";
+            for ( String[] match : grep.matches(node.treeHash) ) {
+                if ( namesOnly ) {
+                    System.out.println(prefix+match[0]);
+                } else if ( grep.isBinary(match[1]) ) {
+                    System.out.println("Binary file "+prefix+match[0]+" matches");
+                } else {
+                    for ( String line : grep.lines(match[1]) ) {
+                        System.out.println(prefix+match[0]+":"+line);
+                    }
+                }
+            }
+        }
+    }
+
+    /* write the files of a commit as a tar or zip archive, to the output file or to stdout.
+    The format is taken from the name of the output file when it is not given */
+    private void archive(String[] args) {
+        String usage = "Usage: archive [--format=tar|zip] [-o <file>] <commit id or branch>";
+        String format = null;
+        String output = null;
+        String commitId = null;
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].startsWith("--format=") ) {
+                format = args[i].substring("--format=".length());
+            } else if ( args[i].equals("-o") && i + 1 < args.length ) {
+                output = args[++i];
+            } else if ( args[i].startsWith("--output=") ) {
+                output = args[i].substring("--output=".length());
+            } else if ( commitId == null ) {
+                commitId = args[i];
+            } else {
+                commitId = null;
+                break;
+            }
+        }
+        if ( format == null ) {
+            format = output != null && output.endsWith(".zip") ? "zip" : "tar";
+        }
+        if ( commitId == null || !(format.equals("tar") || format.equals("zip")) ) {
+            error(usage);
+            return;
+        }
+        CommitNode node = branchMap.containsKey(commitId) ? branchMap.get(commitId) : findCommit(commitId);
+        if ( node == null ) {
+            return;
+        }
+        // sorted by path, which is what unpacking tools and diffs of archives expect
+        Map<String, String> files = new TreeMap<String, String>(node.getAddressBook());
+        try {
+            if ( output == null ) {
+                Archive.write(files, node.time, format, System.out);
+            } else {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                    Archive.write(files, node.time, format, out);
+                }
+            }
+        } catch (IOException e) {
+            error("Cannot write the archive: "+e.getMessage());
+        }
+    }
+
+    /* the commit with the given id, or null after printing an error */
+    private CommitNode findCommit(String commitId) {
+        int id = resolveCommit(commitId);
+        if ( id == -2 ) {
+            error("The commit id <"+commitId+"> is ambiguous");
+            return null;
+        }
+        if ( id < 0 ) {
+            error("No commit with that id exists");
+            return null;
+        }
+        return commitNode.get(id);
+    }
+
+    /* the position of the commit with the given id, which is a commit number, or a commit hash
+    abbreviated to at least MIN_PREFIX hex digits. A number of an existing commit is always
+    taken as the number, so only abbreviations with a letter, or too big to be a number, are
+    looked up as hashes. -1 if there is no such commit, -2 if the abbreviation fits more than
+    one */
+    private int resolveCommit(String commitId) {
+        if ( commitNode == null || commitId == null ) {
+            return -1;
+        }
+        if ( isReflogRef(commitId) ) {
+            // <ref>@{n}: where HEAD or the branch pointed n movements ago
+            String ref = commitId.substring(0, commitId.indexOf("@{"));
+            if ( !ref.equals(Reflog.HEAD) && !branchMap.containsKey(ref) ) {
+                return -1;
+            }
+            Reflog.Entry entry = Reflog.get(ref, Integer.parseInt(
+                commitId.substring(ref.length() + 2, commitId.length() - 1)));
+            return entry == null || entry.newId >= commitNode.size() ? -1 : entry.newId;
+        }
+        if ( commitId.matches("0|[1-9][0-9]{0,8}") && Integer.parseInt(commitId) < commitNode.size() ) {
+            return Integer.parseInt(commitId);
+        }
+        if ( isHashPrefix(commitId) ) {
+            int[] found = graph().withPrefix(commitId);
+            if ( found.length > 1 ) {
+                return -2;
+            }
+            if ( found.length == 1 ) {
+                return found[0];
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isReflogRef(String s) {
+        return s.matches(".+@\\{[0-9]{1,9}\\}");
+    }
+
+    private static boolean isHashPrefix(String s) {
+        return s.length() >= MIN_PREFIX && s.length() <= 40 && s.matches("[0-9a-fA-F]+");
+    }
+
+    /*print the current status including branch, removal, and stage*/
+    private void status() {
+        System.out.println("=== Branches ===");
+        System.out.println("On branch "+currBranch);
+        int size = branchMap.size();
+        if ( size > 1) {
+            
+            System.out.println("Other branches: ");
+            for (String s : branchMap.keySet()) {
+                if ( !s.equals(currBranch) )
+                    System.out.println(s);
+            }
+        }
+        System.out.println();
+
+        if ( staged.size() > 0 || stagedEntries.size() > 0 ) {
+            System.out.println("=== Staged Files ===");
+            for ( int i = 0; i < staged.size(); i++) {
+                System.out.println(staged.get(i));
+            }
+            for ( String key : new TreeSet<String>(stagedEntries.keySet()) ) {
+                System.out.println(key+" (outside the sparse checkout)");
+            }
+            System.out.println();
+        }
+        if ( removal.size() > 0 ) {
+            System.out.println("=== Files Marked for Removal ===");
+            for ( int j = 0; j < removal.size(); j++) {
+                System.out.println(removal.get(j));
+            }
+            System.out.println();
+        }
+
+        TreeMap<String, String> changes = workingStatus();
+        boolean clean = true;
+        for ( Map.Entry<String, String> e : changes.entrySet() ) {
+            if ( !e.getValue().equals("untracked") ) {
+                if ( clean ) {
+                    System.out.println("=== Modifications Not Staged For Commit ===");
+                    clean = false;
+                }
+                System.out.println(e.getKey()+" ("+e.getValue()+")");
+            }
+        }
+        if ( !clean ) {
+            System.out.println();
+        }
+        if ( changes.containsValue("untracked") ) {
+            System.out.println("=== Untracked Files ===");
+            for ( Map.Entry<String, String> e : changes.entrySet() ) {
+                if ( e.getValue().equals("untracked") ) {
+                    System.out.println(e.getKey());
+                }
+            }
+            System.out.println();
+        }
+
+        File sparseFile = new File(SPARSE_FILE);
+        if ( sparseFile.exists() ) {
+            System.out.println("=== Sparse Checkout ===");
+            try {
+                for ( String line : Files.readAllLines(sparseFile.toPath(), StandardCharsets.UTF_8) ) {
+                    System.out.println(line);
+                }
+            } catch (IOException e) {
+                error("Cannot read <"+SPARSE_FILE+">");
+            }
+            System.out.println();
+        }
+
+        if ( staged.size() == 0 && removal.size() == 0 && stagedEntries.size() == 0) {
+            System.out.println(changes.isEmpty() ? "Nothing to commit. Working directory clean"
+                : "No changes added to the commit");
+        }
+    }
+
+    /*set, extend, list or disable the patterns of the sparse checkout. Only the tracked files
+    the patterns cover are kept in the working directory; checkout, reset, merge and add -A
+    leave the other ones alone. The patterns use the .gitletignore syntax*/
+    private void sparseCheckout(String[] args) {
+        if ( args.length == 0 ) {
+            error("Usage: sparse-checkout set|add <pattern>... | list | disable");
+            return;
+        }
+        File file = new File(SPARSE_FILE);
+        ArrayList<String> patterns = new ArrayList<String>();
+        try {
+            if ( file.exists() ) {
+                patterns.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+            }
+            PathFilter before = loadSparse();
+            switch (args[0]) {
+                case "list":
+                    for ( String p : patterns ) {
+                        System.out.println(p);
+                    }
+                    return;
+                case "disable":
+                    Files.deleteIfExists(file.toPath());
+                    break;
+                case "set":
+                    patterns.clear();
+                    // fall through
+                case "add":
+                    patterns.addAll(Arrays.asList(args).subList(1, args.length));
+                    Files.createDirectories(file.getParentFile().toPath());
+                    Files.write(file.toPath(), patterns, StandardCharsets.UTF_8);
+                    break;
+                default:
+                    error("Usage: sparse-checkout set|add <pattern>... | list | disable");
+                    return;
+            }
+            updateSparseFiles(before, loadSparse());
+        } catch (IOException e) {
+            error("Cannot write <"+SPARSE_FILE+">");
+        }
+    }
+
+    /* write the tracked files the new patterns select and the old ones did not, and delete the
+    ones that are not selected any more. Files with local changes are kept */
+    private void updateSparseFiles(PathFilter before, PathFilter after) {
+        Map<String, String> book = head_pointer.getAddressBook();
+        Map<String, String> hashes = head_pointer.getHashBook();
+        for ( String path : new TreeSet<String>(book.keySet()) ) {
+            boolean wasIn = before == null || before.covers(path);
+            boolean isIn = after == null || after.covers(path);
+            File file = new File(path);
+            try {
+                if ( isIn && !wasIn ) {
+                    restoreFile(book.get(path), file);
+                } else if ( wasIn && !isIn && file.exists() ) {
+                    if ( !hashFile(file).equals(hashes.get(path)) || staged.contains(path) ) {
+                        System.out.println("Keeping <"+path+">, it has local changes");
+                    } else {
+                        Files.delete(file.toPath());
+                    }
+                }
+            } catch (IOException e) {
+                error("Cannot update the file <"+path+">");
+            }
+        }
+    }
+
+    /*print out the information using "print" method, one by one in the commitnode*/
+    private void log() {
+        CommitGraph g = graph();
+        for ( int id = head_pointer.commitId; id >= 0; id = g.parent(id) ) {
+            displayMessage(commitNode.get(id));
+        }
+    }
+
+    /*print the commits of the current branch that changed the given file or directory. The
+    changed path filter of a commit tells which commits surely did not touch the path, only
+    the other ones have their trees compared with the parent*/
+    private void log(String path) {
+        CommitGraph g = graph();
+        for ( int id = head_pointer.commitId; id >= 0; id = g.parent(id) ) {
+            CommitNode currNode = commitNode.get(id);
+            int parent = g.parent(id);
+            if ( PathBloom.mightContain(currNode.changedPaths, path) ) {
+                String before = parent < 0 ? null : Tree.hashAt(commitNode.get(parent).treeHash, path);
+                if ( !sameContent(before, Tree.hashAt(currNode.treeHash, path)) ) {
+                    displayMessage(currNode);
+                }
+            }
+        }
+    }
+
+    private void displayMessage(CommitNode node) {
+        if (node==null) return;
+        System.out.println();
+        System.out.println("====");
+        System.out.println("Commit "+node.commitId+" ("+node.hash+").");
+        System.out.println(formatTime(node.time));
+        System.out.println(node.commitMessage);
+
+    }
+
+    /*print the information of current node
+        the same as displayMasseage()*/ 
+    private void print(CommitNode cn) {
+      // currentlly replaced by displayMessage method
+
+    }
+
+     /*reset the file state to the given commit id and move the head to the given node*/
+    public void reset(String commitId) {
+        int id = resolveCommit(commitId);
+        if ( id == -2 ) {
+            error("The commit id <"+commitId+"> is ambiguous");
+            return;
+        }
+        if ( id < 0 ) {
+            error("No such commit exists");
+            return;
+        }  
+        // a reflog entry can be a commit the branch was reset away from
+        if ( !isReflogRef(commitId) && !graph().isAncestor(id, branchMap.get(currBranch).commitId) ) {
+            error("This commit is not from the current branch");
+            return;
+        }
+        if ( (removal.size() == 0 && staged.size() == 0)
+                || confirm("This operation will abort all the staged files and removed files") ) {
+            moveHead(id, Reflog.RESET);
+        }
+    }
+
+    /* move the current branch back to where it was before it last moved, the same as a reset
+    to <branch>@{1}. The undo is logged as well, so a second undo takes the first one back */
+    private void undo() {
+        Reflog.Entry last = Reflog.get(currBranch, 0);
+        if ( last == null || last.oldId < 0 || last.oldId >= commitNode.size() ) {
+            error("Nothing to undo");
+            return;
+        }
+        if ( (removal.size() == 0 && staged.size() == 0)
+                || confirm("This operation will abort all the staged files and removed files") ) {
+            moveHead(last.oldId, Reflog.UNDO);
+            System.out.println("Moved <"+currBranch+"> back to commit "+last.oldId
+                +" ("+commitNode.get(last.oldId).hash+")");
+        }
+    }
+
+    /* point the head and the current branch at the commit, and make the working directory match */
+    private void moveHead(int id, int action) {
+        CommitNode temp_head_pointer = commitNode.get(id);
+        // now copy all the files from commitNode to working directory. With a sparse
+        // checkout only the selected files are read and written
+        PathFilter sparse = loadSparse();
+        HashMap<String, String> targetBook = new HashMap<String, String>();
+        HashMap<String, String> currBook = new HashMap<String, String>();
+        Tree.flatten(temp_head_pointer.treeHash, null, targetBook, new HashMap<String, String>(), sparse);
+        Tree.flatten(head_pointer.treeHash, null, currBook, new HashMap<String, String>(), sparse);
+        File newFile;
+        // remove all the files that are the curr commit but not in the previous, first, so a
+        // file that becomes a directory is out of the way
+        for ( String r : currBook.keySet() ) {
+            if ( !targetBook.containsKey(r) ) {
+                
+                newFile = new File(r);
+                try {
+                    Files.deleteIfExists(newFile.toPath());
+                } catch (IOException e) {
+                    error("Cannot delete the file <"+r+">");
+                }
+            }
+        }  
+        ArrayList<String[]> copies = new ArrayList<String[]>();
+        for ( String key : targetBook.keySet() ) {
+            if ( store(targetBook.get(key)).exists()) {
+                copies.add(new String[] { targetBook.get(key), key });
+            }
+        }
+        restoreFiles(copies);
+        Reflog.append(Reflog.HEAD, head_pointer.commitId, id, action);
+        Reflog.append(currBranch, branchHead(currBranch), id, action);
+        head_pointer = temp_head_pointer;
+        // the branch moves with the head, so the commits after it can be collected by gc
+        branchMap.put(currBranch, temp_head_pointer);
+    }
+
+    /* find the commit that broke something by a binary search over the parent chain of the
+    head. Every step moves the head, but not the branch, to the next commit to test, and only
+    the files that differ from the commit tested before are rewritten. run tests every step
+    with a script: exit code 0 is good, 125 skips the commit, below 128 is bad, and anything
+    else stops the search */
+    private void bisect(String[] args) {
+        String usage = "Usage: bisect start [<bad> [<good>...]] | bad [<commit>] | good [<commit>...]"
+            +" | skip [<commit>...] | run <script> [<args>...] | reset";
+        if ( args.length == 0 ) {
+            error(usage);
+            return;
+        }
+        Bisect state;
+        try {
+            state = Bisect.load();
+        } catch (IOException | RuntimeException e) {
+            error("Cannot read the bisect state <"+Bisect.FILE+">");
+            return;
+        }
+        if ( state != null && state.current != null && resolveCommit(state.current) >= 0 ) {
+            // the working files are at the last step, also when git.ser was not saved after it
+            head_pointer = commitNode.get(resolveCommit(state.current));
+        }
+        String command = args[0];
+        String[] rest = Arrays.copyOfRange(args, 1, args.length);
+        if ( command.equals("start") ) {
+            if ( state != null ) {
+                error("A bisect is already in progress, run bisect reset first");
+                return;
+            }
+            if ( staged.size() > 0 || removal.size() > 0 || stagedEntries.size() > 0 ) {
+                error("Please commit your changes or stash them before you can bisect");
+                return;
+            }
+            state = new Bisect(currBranch, head_pointer.hash);
+            for ( int i = 0; i < rest.length; i++ ) {
+                if ( !markBisect(state, i == 0 ? "bad" : "good", rest[i]) ) {
+                    return;
+                }
+            }
+            bisectStep(state);
+        } else if ( state == null ) {
+            error("No bisect in progress, run bisect start first");
+        } else if ( command.equals("bad") || command.equals("good") || command.equals("skip") ) {
+            if ( command.equals("bad") && rest.length > 1 ) {
+                error(usage);
+                return;
+            }
+            if ( rest.length == 0 ) {
+                rest = new String[] { head_pointer.hash };
+            }
+            for ( String commitId : rest ) {
+                if ( !markBisect(state, command, commitId) ) {
+                    return;
+                }
+            }
+            bisectStep(state);
+        } else if ( command.equals("run") && rest.length > 0 ) {
+            bisectRun(state, rest);
+        } else if ( command.equals("reset") && rest.length == 0 ) {
+            CommitNode node = branchMap.containsKey(state.branch) ? branchMap.get(state.branch) : branchMap.get(currBranch);
+            switchFiles(node);
+            Reflog.append(Reflog.HEAD, head_pointer.commitId, node.commitId, Reflog.BISECT);
+            head_pointer = node;
+            if ( branchMap.containsKey(state.branch) ) {
+                currBranch = state.branch;
+            }
+            try {
+                Bisect.clear();
+            } catch (IOException e) {
+                error("Cannot remove the bisect state <"+Bisect.FILE+">");
+            }
+            System.out.println("Back on branch <"+currBranch+">");
+        } else {
+            error(usage);
+        }
+    }
+
+    private boolean markBisect(Bisect state, String kind, String commitId) {
+        CommitNode node = branchMap.containsKey(commitId) ? branchMap.get(commitId) : findCommit(commitId);
+        if ( node == null ) {
+            return false;
+        }
+        if ( kind.equals("bad") ) {
+            state.bad = node.hash;
+        } else if ( kind.equals("good") ) {
+            state.good.add(node.hash);
+        } else {
+            state.skipped.add(node.hash);
+        }
+        return true;
+    }
+
+    /* check out the next commit to test, or print the first bad commit once it is the only
+    suspect left. Returns true when the search is over */
+    private boolean bisectStep(Bisect state) {
+        boolean over = true;
+        int bad = state.bad == null ? -1 : resolveCommit(state.bad);
+        ArrayList<Integer> good = new ArrayList<Integer>();
+        for ( String hash : state.good ) {
+            if ( resolveCommit(hash) >= 0 ) {
+                good.add(resolveCommit(hash));
+            }
+        }
+        ArrayList<Integer> skipped = new ArrayList<Integer>();
+        for ( String hash : state.skipped ) {
+            skipped.add(resolveCommit(hash));
+        }
+        if ( bad < 0 || good.isEmpty() ) {
+            System.out.println("Waiting for "+(bad < 0 ? "a bad" : "a good")+" commit");
+            over = false;
+        } else {
+            List<Integer> suspects = Bisect.suspects(graph(), bad, good);
+            int next = Bisect.next(suspects, skipped);
+            if ( suspects.isEmpty() ) {
+                error("The bad commit is an ancestor of a good commit");
+            } else if ( suspects.size() == 1 ) {
+                System.out.println(commitNode.get(bad).hash+" is the first bad commit");
+                displayMessage(commitNode.get(bad));
+                System.out.println();
+                System.out.println("Found in "+state.steps+(state.steps == 1 ? " step, " : " steps, ")
+                    +state.files+" files rewritten, "+(System.currentTimeMillis() - state.startTime)+" ms");
+            } else if ( next < 0 ) {
+                System.out.println("Only skipped commits are left to test, the first bad commit is one of:");
+                for ( int id : suspects ) {
+                    System.out.println(commitNode.get(id).hash+" "+commitNode.get(id).commitMessage);
+                }
+            } else {
+                CommitNode node = commitNode.get(next);
+                state.files += switchFiles(node);
+                state.current = node.hash;
+                state.steps++;
+                Reflog.append(Reflog.HEAD, head_pointer.commitId, node.commitId, Reflog.BISECT);
+                head_pointer = node;
+                int left = suspects.size() - 1;
+                int steps = 32 - Integer.numberOfLeadingZeros(left);
+                System.out.println("Bisecting: "+left+(left == 1 ? " commit" : " commits")+" left to test, about "
+                    +steps+(steps == 1 ? " step" : " steps"));
+                System.out.println("["+node.hash+"] "+node.commitMessage);
+                over = false;
+            }
+        }
+        try {
+            state.save();
+        } catch (IOException e) {
+            error("Cannot write the bisect state <"+Bisect.FILE+">");
+            return true;
+        }
+        return over;
+    }
+
+    /* test the head with the script and mark it, until the first bad commit is found */
+    private void bisectRun(Bisect state, String[] script) {
+        if ( state.bad == null || state.good.isEmpty() ) {
+            error("bisect run needs a bad and a good commit");
+            return;
+        }
+        while ( true ) {
+            int code;
+            try {
+                Process process = new ProcessBuilder(script).redirectErrorStream(true).start();
+                process.getOutputStream().close();
+                // the output goes through System.out, so it is kept in order with ours
+                try (InputStream in = process.getInputStream()) {
+                    byte[] buffer = new byte[8192];
+                    for ( int n; (n = in.read(buffer)) > 0; ) {
+                        System.out.write(buffer, 0, n);
+                    }
+                }
+                code = process.waitFor();
+            } catch (IOException e) {
+                error("Cannot run <"+script[0]+">: "+e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error("The bisect run was interrupted");
+                return;
+            }
+            if ( code >= 128 || code < 0 ) {
+                error("The script exited with "+code+", the bisect run stopped");
+                return;
+            }
+            markBisect(state, code == 0 ? "good" : code == 125 ? "skip" : "bad", head_pointer.hash);
+            if ( bisectStep(state) ) {
+                return;
+            }
+        }
+    }
+
+    /* write the commits of the branches (all of them by default) as a git fast-import
+    stream, to stdout or to the -o file */
+    private void fastExport(String[] args) {
+        String usage = "Usage: fast-export [-o <file> | --output=<file>] [<branch>...]";
+        String output = null;
+        TreeMap<String, CommitNode> branches = new TreeMap<String, CommitNode>();
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].equals("-o") && i + 1 < args.length ) {
+                output = args[++i];
+            } else if ( args[i].startsWith("--output=") ) {
+                output = args[i].substring("--output=".length());
+            } else if ( branchMap.containsKey(args[i]) ) {
+                branches.put(args[i], branchMap.get(args[i]));
+            } else {
+                error(args[i].startsWith("-") ? usage : "The branch <"+args[i]+"> does not exist");
+                return;
+            }
+        }
+        if ( branches.isEmpty() ) {
+            branches.putAll(branchMap);
+        }
+        try {
+            if ( output == null ) {
+                OutputStream out = new BufferedOutputStream(System.out);
+                FastExport.write(commitNode, graph(), branches, out);
+                out.flush();
+            } else {
+                int[] written;
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                    written = FastExport.write(commitNode, graph(), branches, out);
+                }
+                System.out.println("Exported "+written[0]+" commits and "+written[1]+" files to <"+output+">");
+            }
+        } catch (IOException e) {
+            error("Cannot write the export: "+e.getMessage());
+        }
+    }
+
+    /* read a git fast-import stream, from the file or stdin, as new commits. The branches of
+    the stream are created or moved at the end, and the working directory follows the current
+    branch if it moved. Everything is read in this one command, so the state is saved once */
+    private void fastImport(String[] args) {
+        if ( args.length > 1 ) {
+            error("Usage: fast-import [<file>]");
+            return;
+        }
+        if ( staged.size() > 0 || removal.size() > 0 || stagedEntries.size() > 0 ) {
+            error("Please commit your changes or stash them before you can import");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int before = commitNode.size();
+        FastImport importer = null;
+        try (InputStream in = args.length == 0 ? System.in : new FileInputStream(args[0])) {
+            importer = new FastImport(commitNode, branchMap, in);
+            importer.run();
+        } catch (IOException | RuntimeException e) {
+            // nothing is imported: the commits read so far and their folders are dropped
+            for ( int id = before; id < commitNode.size(); id++ ) {
+                sweepFolder(store(GITLET_DIR+id), new HashSet<String>());
+            }
+            commitNode.subList(before, commitNode.size()).clear();
+            graph = null;
+            error("The import stopped: "+e.getMessage());
+            return;
+        }
+        graph = null;
+        int moved = 0;
+        for ( Map.Entry<String, Integer> e : importer.tips.entrySet() ) {
+            String name = FastImport.branchName(e.getKey());
+            if ( name == null ) {
+                System.out.println("Skipped <"+e.getKey()+">, only branches are imported");
+                continue;
+            }
+            int old = branchHead(name);
+            if ( old == e.getValue() ) {
+                continue;
+            }
+            String folder = checkedOutElsewhere(name);
+            if ( folder != null ) {
+                System.out.println("The branch <"+name+"> is checked out in <"+folder+">, it was not moved");
+                continue;
+            }
+            branchMap.put(name, commitNode.get(e.getValue()));
+            Reflog.append(name, old, e.getValue(), Reflog.IMPORT);
+            moved++;
+        }
+        CommitNode node = branchMap.get(currBranch);
+        if ( node != null && node != head_pointer ) {
+            switchFiles(node);
+            Reflog.append(Reflog.HEAD, head_pointer.commitId, node.commitId, Reflog.IMPORT);
+            head_pointer = node;
+        }
+        System.out.println("Imported "+importer.imported+" commits and "+importer.blobs+" files on "+moved
+            +(moved == 1 ? " branch in " : " branches in ")+(System.currentTimeMillis() - start)+" ms");
+    }
+
+    /* more working directories for the branches of this repository. Each one has its own
+    head, staging area, sparse checkout and bisect in its own .gitlet, next to a file that
+    points back at the main working directory, whose .gitlet holds the commits, branches and
+    stored files for all of them. A branch can be checked out in one of them at a time */
+    private void worktree(String[] args) {
+        if ( args.length == 3 && args[0].equals("add") ) {
+            worktreeAdd(args[1], args[2]);
+        } else if ( args.length == 1 && args[0].equals("list") ) {
+            for ( Map.Entry<String, String> e : worktreeBranches().entrySet() ) {
+                System.out.println(e.getKey()+" "+(e.getValue() == null ? "(missing)" : "<"+e.getValue()+">"));
+            }
+        } else if ( args.length == 2 && args[0].equals("remove") ) {
+            worktreeRemove(args[1]);
+        } else {
+            error("Usage: worktree add <path> <branch> | list | remove <path>");
+        }
+    }
+
+    private void worktreeAdd(String path, String branchName) {
+        if ( !branchMap.containsKey(branchName) ) {
+            error("The branch <"+branchName+"> does not exist");
+            return;
+        }
+        File folder = absolute(path);
+        String where = currBranch.equals(branchName) ? here() : checkedOutElsewhere(branchName);
+        if ( where != null ) {
+            error("The branch <"+branchName+"> is checked out in <"+where+">");
+            return;
+        }
+        String[] children = folder.list();
+        if ( folder.isFile() || (children != null && children.length > 0) ) {
+            error("The folder <"+path+"> is not empty");
+            return;
+        }
+        CommitNode node = branchMap.get(branchName);
+        HashMap<String, Object> state = new HashMap<String, Object>();
+        state.put("head", node.hash);
+        state.put("currBranch", branchName);
+        state.put("staged", new ArrayList<String>());
+        state.put("removal", new ArrayList<String>());
+        state.put("stagedEntries", new HashMap<String, String[]>());
+        try {
+            Files.createDirectories(new File(folder, GITLET_DIR).toPath());
+            String main = root.isEmpty() ? here()+"/" : root;
+            Files.write(new File(folder, WORKTREE_FILE).toPath(), main.getBytes(StandardCharsets.UTF_8));
+            if ( !writeState(state, new File(folder, GITLET_DIR+"git.ser")) ) {
+                failed = true;
+                return;
+            }
+            // registered under the name of the folder, made unique
+            Files.createDirectories(store(WORKTREES_DIR).toPath());
+            String name = folder.getName();
+            for ( int n = 2; store(WORKTREES_DIR+name).exists(); n++ ) {
+                name = folder.getName()+n;
+            }
+            Files.write(store(WORKTREES_DIR+name).toPath(), folder.getPath().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            error("Cannot create the worktree <"+path+">");
+            return;
+        }
+        // the files are copied straight from the shared store
+        HashMap<String, String> book = new HashMap<String, String>();
+        Tree.flatten(node.treeHash, null, book, new HashMap<String, String>());
+        ArrayList<String[]> copies = new ArrayList<String[]>();
+        for ( Map.Entry<String, String> e : book.entrySet() ) {
+            copies.add(new String[] { e.getValue(), new File(folder, e.getKey()).getPath() });
+        }
+        restoreFiles(copies);
+        System.out.println("Prepared the worktree <"+path+"> on branch <"+branchName+">");
+    }
+
+    /* forget a linked worktree. Its .gitlet is removed, the files are left where they are */
+    private void worktreeRemove(String path) {
+        String folder = absolute(path).getPath();
+        if ( folder.equals(here()) ) {
+            error("Cannot remove the current worktree");
+            return;
+        }
+        File[] links = store(WORKTREES_DIR).listFiles();
+        for ( File link : links == null ? new File[0] : links ) {
+            String linked = readLink(link);
+            if ( !folder.equals(linked) ) {
+                continue;
+            }
+            HashMap<String, Object> state = readState(new File(folder, GITLET_DIR+"git.ser"));
+            if ( state != null && (!((List<?>) state.get("staged")).isEmpty() || !((List<?>) state.get("removal")).isEmpty()) ) {
+                error("The worktree <"+path+"> has staged changes, commit them first");
+                return;
+            }
+            sweepFolder(new File(folder, GITLET_DIR), new HashSet<String>());
+            link.delete();
+            System.out.println("Removed the worktree <"+path+">, its files were left in place");
+            return;
+        }
+        error("The folder <"+path+"> is not a worktree of this repository");
+    }
+
+    /* the branch checked out in every working directory of the repository, by folder. null
+    when the folder of a linked worktree is gone */
+    private TreeMap<String, String> worktreeBranches() {
+        TreeMap<String, String> branches = new TreeMap<String, String>();
+        if ( !root.isEmpty() ) {
+            branches.put(root.substring(0, root.length() - 1), shared == null ? null : (String) shared.get("currBranch"));
+        }
+        File[] links = store(WORKTREES_DIR).listFiles();
+        for ( File link : links == null ? new File[0] : links ) {
+            String folder = readLink(link);
+            if ( folder != null ) {
+                HashMap<String, Object> state = readState(new File(folder, GITLET_DIR+"git.ser"));
+                branches.put(folder, state == null ? null : (String) state.get("currBranch"));
+            }
+        }
+        // the current one, which may not be saved yet
+        branches.put(here(), currBranch);
+        return branches;
+    }
+
+    /* the folder of another working directory that has the branch checked out, or null */
+    private String checkedOutElsewhere(String branchName) {
+        for ( Map.Entry<String, String> e : worktreeBranches().entrySet() ) {
+            if ( branchName.equals(e.getValue()) && !e.getKey().equals(here()) ) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static String readLink(File link) {
+        try {
+            return new String(Files.readAllBytes(link.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static File absolute(String path) {
+        return new File(path).getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    private static String here() {
+        return new File("").getAbsolutePath();
+    }
+
+    /* the commit the branch points to, -1 for master before the first commit */
+    private int branchHead(String branchName) {
+        CommitNode node = branchMap.get(branchName);
+        return node == null ? -1 : node.commitId;
+    }
+
+    /* print where HEAD or the branch pointed, latest first */
+    private void reflog(String ref) {
+        if ( !ref.equals(Reflog.HEAD) && !branchMap.containsKey(ref) ) {
+            error("The branch <"+ref+"> does not exist");
+            return;
+        }
+        int size = Reflog.size(ref);
+        for ( int n = 0; n < size; n++ ) {
+            Reflog.Entry entry = Reflog.get(ref, n);
+            String target = entry.newId < 0 || entry.newId >= commitNode.size()
+                ? "(removed)" : commitNode.get(entry.newId).hash.substring(0, 7);
+            String message = entry.newId < 0 || entry.newId >= commitNode.size()
+                ? "" : " "+commitNode.get(entry.newId).commitMessage;
+            System.out.println(target+" "+ref+"@{"+n+"}: "+entry.action()+" "+formatTime(entry.time)+message);
+        }
+    }
+
+    /*remove the commits that can not be reached from a branch or the head any more, together
+    with the stored files and trees only they use. Unreachable commits younger than the grace
+    period (in days, 14 by default) are kept. The remaining commits are renumbered so that
+    commit ids stay the positions in the commit list*/
+    private void gc(String[] args) {
+        if ( commitNode == null ) {
+            error("No gitlet repository found");
+            return;
+        }
+        if ( !root.isEmpty() ) {
+            // the worktrees hold no commits, and the sweep works on the paths of the store
+            error("Run gc from the main working directory <"+root+">");
+            return;
+        }
+        double graceDays = GC_GRACE_DAYS;
+        for ( String arg : args ) {
+            try {
+                if ( arg.startsWith("--grace=") ) {
+                    graceDays = Double.parseDouble(arg.substring("--grace=".length()));
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the usage message
+            }
+            error("Usage: gc [--grace=<days>]");
+            return;
+        }
+        // files staged without a working copy point at stored locations, which gc moves
+        for ( String folder : worktreeBranches().keySet() ) {
+            Map<?, ?> entries = stagedEntries;
+            if ( !folder.equals(here()) ) {
+                HashMap<String, Object> state = readState(new File(folder, GITLET_DIR+"git.ser"));
+                entries = state == null ? null : (Map<?, ?>) state.get("stagedEntries");
+            }
+            if ( entries != null && !entries.isEmpty() ) {
+                error("Files outside the sparse checkout are staged in <"+folder+">, commit them before gc");
+                return;
+            }
+        }
+        long limit = System.currentTimeMillis() - (long) (graceDays * 24 * 3600 * 1000);
+
+        // mark: everything on the parent chain of a branch, the head, or a recent commit
+        boolean[] live = new boolean[commitNode.size()];
+        ArrayList<CommitNode> roots = new ArrayList<CommitNode>(branchMap.values());
+        roots.add(head_pointer);
+        roots.add(commitNode.get(0));
+        for ( CommitNode node : commitNode ) {
+            if ( node.time > limit ) {
+                roots.add(node);
+            }
+        }
+        // and the commits recent reflog entries point to, so they can still be undone. The
+        // HEAD log of every worktree counts
+        ArrayList<File> linked = new ArrayList<File>();
+        for ( String folder : worktreeBranches().keySet() ) {
+            if ( !folder.equals(here()) ) {
+                linked.add(new File(folder));
+            }
+        }
+        Reflog.linkWorktrees(linked);
+        try {
+            for ( int id : Reflog.since(limit) ) {
+                if ( id >= 0 && id < commitNode.size() ) {
+                    roots.add(commitNode.get(id));
+                }
+            }
+        } catch (IOException e) {
+            error("Cannot read the reflog");
+            return;
+        }
+        // trees are shared by hash, so a live tree can use a file stored by an unreachable
+        // commit. Such a commit is kept as well, until no more commits are added
+        HashSet<String> trees = new HashSet<String>();
+        HashSet<String> locations = new HashSet<String>();
+        CommitGraph g = graph();
+        while ( !roots.isEmpty() ) {
+            for ( CommitNode node : roots ) {
+                for ( int id = node.commitId; id >= 0 && !live[id]; id = g.parent(id) ) {
+                    live[id] = true;
+                    Tree.collect(commitNode.get(id).treeHash, trees, locations);
+                }
+            }
+            roots.clear();
+            for ( String location : locations ) {
+                int id = folderId(location);
+                if ( id >= 0 && id < live.length && !live[id] ) {
+                    roots.add(commitNode.get(id));
+                }
+            }
+        }
+
+        // renumber the live commits, in their old order
+        boolean moved = false;
+        ArrayList<CommitNode> kept = new ArrayList<CommitNode>();
+        int[] newIds = new int[commitNode.size()];
+        Arrays.fill(newIds, -1);
+        for ( CommitNode node : commitNode ) {
+            if ( live[node.commitId] ) {
+                newIds[node.commitId] = kept.size();
+                if ( node.commitId != kept.size() ) {
+                    moved = true;
+                }
+                kept.add(node);
+            }
+        }
+        int removed = commitNode.size() - kept.size();
+
+        // sweep the folders of the removed commits, and the stored files no live tree uses
+        int files = 0;
+        for ( CommitNode node : commitNode ) {
+            files += sweepFolder(new File(GITLET_DIR+node.commitId), locations);
+        }
+        files += sweepChunks(locations);
+        File[] treeFiles = new File(Tree.TREE_DIR).listFiles();
+        if ( treeFiles != null ) {
+            for ( File f : treeFiles ) {
+                if ( !trees.contains(f.getName()) && f.delete() ) {
+                    files++;
+                }
+            }
+        }
+        Tree.clearLoaded();
+        // cached blames refer to the old commit ids
+        File[] blames = new File(BLAME_DIR).listFiles();
+        if ( blames != null ) {
+            for ( File f : blames ) {
+                f.delete();
+            }
+        }
+
+        // move the folders down to their new ids, lowest first so the target is always free,
+        // and point the trees at the new folders
+        for ( CommitNode node : kept ) {
+            int newId = newIds[node.commitId];
+            if ( newId != node.commitId ) {
+                File folder = new File(GITLET_DIR+node.commitId);
+                if ( folder.exists() && !folder.renameTo(new File(GITLET_DIR+newId)) ) {
+                    error("Cannot move the folder <"+folder.getPath()+">");
+                }
+            }
+        }
+        if ( moved ) {
+            for ( String tree : trees ) {
+                Tree.relocate(tree, newIds);
+            }
+        }
+        for ( CommitNode node : kept ) {
+            node.parentId = newIds[node.parentId];
+            node.commitId = newIds[node.commitId];
+            // the flat views hold old locations
+            node.manifest = null;
+        }
+        commitNode = kept;
+        graph = null;
+        Reflog.remap(newIds);
+        System.out.println("Removed "+removed+" commits and "+files+" stored files");
+    }
+
+    /* delete the chunks that no live chunked file lists */
+    private static int sweepChunks(HashSet<String> locations) {
+        HashSet<String> live = new HashSet<String>();
+        for ( String location : locations ) {
+            if ( ChunkStore.isChunked(location) ) {
+                try {
+                    for ( String hash : ChunkStore.chunks(location) ) {
+                        live.add(ChunkStore.chunkFile(hash).getPath().replace(File.separatorChar, '/'));
+                    }
+                } catch (IOException e) {
+                    // keep every chunk if a list can not be read
+                    return 0;
+                }
+            }
+        }
+        return sweepFolder(new File(ChunkStore.CHUNK_DIR), live);
+    }
+
+    /* the id of the commit folder holding the stored file, or -1 */
+    private static int folderId(String location) {
+        if ( !location.startsWith(GITLET_DIR) ) {
+            return -1;
+        }
+        int slash = location.indexOf('/', GITLET_DIR.length());
+        try {
+            return Integer.parseInt(location.substring(GITLET_DIR.length(), slash));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /* delete the files in the folder that are not in locations, and the empty directories */
+    private static int sweepFolder(File folder, HashSet<String> locations) {
+        int count = 0;
+        File[] children = folder.listFiles();
+        if ( children != null ) {
+            for ( File child : children ) {
+                if ( child.isDirectory() ) {
+                    count += sweepFolder(child, locations);
+                } else if ( !locations.contains(child.getPath().replace(File.separatorChar, '/')) && child.delete() ) {
+                    count++;
+                }
+            }
+        }
+        String[] left = folder.list();
+        if ( left != null && left.length == 0 ) {
+            folder.delete();
+        }
+        return count;
     }
 
     public void push(String remoteName, String remoteBranchName) {
@@ -12,6 +12,10 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -160,6 +164,9 @@ public class GitletPrivateTest {
         gitlet("commit", "added hug");
         gitlet("checkout", "b");
         assertEquals("This is not a wug.", getText(wugFileName));
+        // hug is only tracked on master, so checking out b removes it
+        assertTrue(!new File(hugFileName).exists());
+        gitlet("checkout", "master");
         assertEquals("This is a hug.", getText(hugFileName));
     }
 
@@ -264,6 +271,695 @@ public class GitletPrivateTest {
     }
 
 
+    /**
+    * Tests that adding a directory adds every file below it, and that a commit
+    * only stores the files that changed. Involves init, add, commit and checkout
+    */
+    @Test
+    public void testAddDirectory() {
+        String wugFileName = TESTING_DIR + "animals/wug.txt";
+        String hugFileName = TESTING_DIR + "animals/more/hug.txt";
+        new File(TESTING_DIR + "animals/more").mkdirs();
+        createFile(wugFileName, "This is a wug.");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("init");
+        gitlet("add", TESTING_DIR + "animals");
+        gitlet("commit", "added animals");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        assertTrue(new File(".gitlet/2/" + wugFileName).exists());
+        assertTrue(!new File(".gitlet/2/" + hugFileName).exists());
+        writeFile(hugFileName, "This is not a hug.");
+        gitlet("checkout", "2", hugFileName);
+        assertEquals("This is a hug.", getText(hugFileName));
+    }
+
+    /**
+    * Tests that directories and glob patterns skip the files matched by .gitletignore.
+    * Involves init, add, commit and status
+    */
+    @Test
+    public void testAddAllWithIgnore() {
+        createFile(".gitletignore", "*.log\n");
+        createFile(TESTING_DIR + "wug.txt", "This is a wug.");
+        createFile(TESTING_DIR + "wug.log", "This is a log.");
+        gitlet("init");
+        gitlet("add", TESTING_DIR + "*");
+        String status = gitlet("status");
+        assertTrue(status.contains(TESTING_DIR + "wug.txt"));
+        assertTrue(!status.contains(TESTING_DIR + "wug.log"));
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "added everything");
+        assertTrue(new File(".gitlet/1/" + TESTING_DIR + "wug.txt").exists());
+        assertTrue(!new File(".gitlet/1/" + TESTING_DIR + "wug.log").exists());
+        new File(".gitletignore").delete();
+    }
+
+    /**
+    * Tests that diff shows the changed lines between two commits and detects
+    * a renamed file. Involves init, add, rm, commit and diff
+    */
+    @Test
+    public void testDiff() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug.txt";
+        String dugFileName = TESTING_DIR + "dug.txt";
+        createFile(wugFileName, "This is a wug.\nIt is small.\n");
+        createFile(hugFileName, "This is a hug.\nIt is warm.\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("add", hugFileName);
+        gitlet("commit", "added wug and hug");
+        writeFile(wugFileName, "This is a wug.\nIt is big.\n");
+        createFile(dugFileName, "This is a hug.\nIt is warm.\n");
+        gitlet("rm", hugFileName);
+        gitlet("add", wugFileName);
+        gitlet("add", dugFileName);
+        gitlet("commit", "changed wug and renamed hug");
+        String diff = gitlet("diff", "1", "2");
+        assertTrue(diff.contains("-It is small."));
+        assertTrue(diff.contains("+It is big."));
+        assertTrue(diff.contains("rename from " + hugFileName));
+        assertTrue(diff.contains("rename to " + dugFileName));
+    }
+
+    /**
+    * Tests that gc removes the commits of a removed branch and renumbers the
+    * others. Involves init, add, commit, branch, checkout, rm-branch and gc
+    */
+    @Test
+    public void testGc() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "b");
+        gitlet("checkout", "b");
+        writeFile(wugFileName, "This is a wug on b.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug on b");
+        gitlet("checkout", "master");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("rm-branch", "b");
+        gitlet("gc", "--grace=0");
+        assertTrue(!new File(".gitlet/3").exists());
+        String logContent = gitlet("log");
+        assertArrayEquals(new String[] { "changed wug", "added wug", "initial commit" },
+                extractCommitMessages(logContent));
+        gitlet("checkout", "2", wugFileName);
+        assertEquals("This is not a wug.", getText(wugFileName));
+    }
+
+    /**
+     * gc waits while files outside the sparse checkout are staged, since they point at
+     * stored files that gc can move.
+     */
+    @Test
+    public void testGcRefusesStagedEntries() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug/hug.txt";
+        new File(TESTING_DIR + "hug").mkdirs();
+        createFile(wugFileName, "This is a wug.");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("init");
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "added wug and hug");
+        gitlet("branch", "b");
+        gitlet("checkout", "b");
+        writeFile(wugFileName, "This is a wug on b.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug on b");
+        gitlet("checkout", "master");
+        gitlet("sparse-checkout", "set", "/" + TESTING_DIR + "hug/");
+        gitlet("merge", "--yes", "b");
+        assertTrue(gitlet("gc", "--grace=0").contains("commit them before gc"));
+        gitlet("commit", "merged b");
+        assertTrue(gitlet("gc", "--grace=0").contains("Removed"));
+        gitlet("sparse-checkout", "disable");
+        assertEquals("This is a wug on b.", getText(wugFileName));
+    }
+
+    /**
+    * Tests that log with a path only shows the commits that changed it.
+    * Involves init, add, commit and log
+    */
+    @Test
+    public void testLogPath() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug.txt";
+        createFile(wugFileName, "This is a wug.");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("add", hugFileName);
+        gitlet("commit", "added hug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        String logContent = gitlet("log", "--", wugFileName);
+        assertArrayEquals(new String[] { "changed wug", "added wug" },
+                extractCommitMessages(logContent));
+    }
+
+    /**
+    * Tests that blame gives every line the commit that introduced it, also when
+    * the result comes from the cache. Involves init, add, commit and blame
+    */
+    @Test
+    public void testBlame() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.\nIt is small.\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is a wug.\nIt is big.\n");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        for (int i = 0; i < 2; i++) {
+            String[] lines = gitlet("blame", wugFileName).split(LINE_SEPARATOR);
+            assertEquals(2, lines.length);
+            assertTrue(lines[0].startsWith("1 "));
+            assertTrue(lines[0].endsWith("This is a wug."));
+            assertTrue(lines[1].startsWith("2 "));
+            assertTrue(lines[1].endsWith("It is big."));
+        }
+    }
+
+    /**
+    * Tests that blame of an empty tracked file prints nothing and does not fail.
+    */
+    @Test
+    public void testBlameEmptyFile() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added empty wug");
+        assertEquals("", gitlet("blame", wugFileName).trim());
+    }
+
+    /**
+    * Tests that a big file is stored as chunks and restored by checkout.
+    * Involves init, add, commit and checkout
+    */
+    @Test
+    public void testChunkedFile() {
+        String bigFileName = TESTING_DIR + "big.txt";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append("This is line ").append(i).append(" of a big wug.\n");
+        }
+        String bigText = sb.toString();
+        createFile(bigFileName, bigText);
+        gitlet("init");
+        gitlet("add", bigFileName);
+        gitlet("commit", "added big wug");
+        assertTrue(new File(".gitlet/1/" + bigFileName + ".gitlet-chunks").exists());
+        writeFile(bigFileName, "This is not a big wug.");
+        gitlet("checkout", "1", bigFileName);
+        assertEquals(bigText, getText(bigFileName));
+    }
+
+    /**
+     * Files outside the sparse checkout leave the working directory and come
+     * back when it is disabled.
+     */
+    @Test
+    public void testSparseCheckout() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug/hug.txt";
+        new File(TESTING_DIR + "hug").mkdirs();
+        createFile(wugFileName, "This is a wug.");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("add", hugFileName);
+        gitlet("commit", "added wug and hug");
+        gitlet("sparse-checkout", "set", "/" + TESTING_DIR + "hug/");
+        assertTrue(!new File(wugFileName).exists());
+        assertEquals("This is a hug.", getText(hugFileName));
+        assertTrue(gitlet("status").contains("=== Sparse Checkout ==="));
+        gitlet("sparse-checkout", "disable");
+        assertEquals("This is a wug.", getText(wugFileName));
+    }
+
+    /**
+     * Status lists the changed tracked files, and commit -a commits them
+     * without an add.
+     */
+    @Test
+    public void testCommitAll() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        assertTrue(gitlet("status").contains(wugFileName + " (modified)"));
+        gitlet("commit", "-a", "changed wug");
+        assertEquals("This is not a wug.", getText(".gitlet/2/" + wugFileName));
+        assertTrue(!gitlet("status").contains(wugFileName + " (modified)"));
+    }
+
+    /**
+     * Commits can be named by an abbreviated hash, as shown by log.
+     */
+    @Test
+    public void testHashPrefix() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        String logContent = gitlet("log");
+        int start = logContent.indexOf("Commit 1 (") + "Commit 1 (".length();
+        String prefix = logContent.substring(start, start + 7);
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("checkout", prefix, wugFileName);
+        assertEquals("This is a wug.", getText(wugFileName));
+        assertTrue(gitlet("find", prefix).contains("added wug"));
+    }
+
+    /**
+     * The initial commit has the same hash in every repository, and a commit number is
+     * never read as a hash.
+     */
+    @Test
+    public void testRootHashAndNumbers() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        assertTrue(gitlet("log").contains("Commit 0 (027b8bb4a705137e7f237f12be844f4796c3ac6e)"));
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("checkout", "1", wugFileName);
+        assertEquals("This is a wug.", getText(wugFileName));
+    }
+
+    /**
+     * A batch saves its commands together, and nothing when one of them fails.
+     */
+    @Test
+    public void testBatch() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String scriptName = TESTING_DIR + "script";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        createFile(scriptName, "# add the wug\nadd " + wugFileName + "\ncommit \"added wug\"\n");
+        gitlet("batch", scriptName);
+        assertTrue(gitlet("log").contains("added wug"));
+        writeFile(scriptName, "branch cool-beans\nrm-branch no-such-branch\n");
+        assertTrue(gitlet("batch", scriptName).contains("stopped at line 2"));
+        assertTrue(gitlet("checkout", "cool-beans").contains("no such branch"));
+    }
+
+    /**
+     * A batch refuses gc, which deletes and renumbers stored data before the batch is saved.
+     */
+    @Test
+    public void testBatchRefusesGc() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String scriptName = TESTING_DIR + "script";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("reset", "--yes", "1");
+        createFile(scriptName, "gc --grace=0\ncommit \"nothing\"\n");
+        String out = gitlet("batch", scriptName);
+        assertTrue(out.contains("can not run in a batch"));
+        assertTrue(out.contains("stopped at line 1"));
+        assertTrue(!gitlet("gc", "--grace=0").contains("Exception"));
+        assertTrue(gitlet("log").contains("added wug"));
+        assertEquals("This is a wug.", getText(wugFileName));
+    }
+
+    /**
+     * merge --dry-run reports the outcome of every file without touching them.
+     */
+    @Test
+    public void testMergeDryRun() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug.txt";
+        String reportName = TESTING_DIR + "report.json";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "b");
+        gitlet("checkout", "b");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("add", hugFileName);
+        gitlet("commit", "added hug");
+        gitlet("checkout", "master");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        String plan = gitlet("merge", "--dry-run", "--report=" + reportName, "b");
+        assertTrue(plan.contains("added: " + hugFileName));
+        assertTrue(plan.contains("0 conflicts"));
+        assertTrue(!new File(hugFileName).exists());
+        assertTrue(getText(reportName).contains("\"outcome\": \"added\""));
+        // without a file the report is all that is printed
+        String json = gitlet("merge", "--dry-run", "--report", "b").trim();
+        assertTrue(json.startsWith("{") && json.endsWith("}"));
+        // and an error does not get mixed into it
+        writeFile(wugFileName, "This is a wug again.");
+        gitlet("add", wugFileName);
+        assertEquals("", gitlet("merge", "--yes", "--report", "b").trim());
+        gitlet("commit", "wug again");
+        gitlet("merge", "--yes", "b");
+        assertEquals("This is a hug.", getText(hugFileName));
+    }
+
+    /**
+     * merge plans the files of nested directories in one walk over the three trees.
+     */
+    @Test
+    public void testMergeNestedDirectories() {
+        String wugFileName = TESTING_DIR + "a/b/wug.txt";
+        String hugFileName = TESTING_DIR + "a/hug.txt";
+        new File(TESTING_DIR + "a/b").mkdirs();
+        createFile(wugFileName, "This is a wug.");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("init");
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "added wug and hug");
+        gitlet("branch", "b");
+        writeFile(wugFileName, "This is our wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("checkout", "b");
+        writeFile(wugFileName, "This is their wug.");
+        writeFile(hugFileName, "This is their hug.");
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "changed wug and hug");
+        gitlet("checkout", "master");
+        String plan = gitlet("merge", "--dry-run", "b");
+        assertTrue(plan.contains("conflict: " + wugFileName));
+        assertTrue(plan.contains("updated: " + hugFileName));
+        assertTrue(plan.contains("1 conflict"));
+    }
+
+    /**
+     * A reset can be taken back with undo, or with a reset to HEAD@{1}.
+     */
+    @Test
+    public void testUndo() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("reset", "1");
+        assertEquals("This is a wug.", getText(wugFileName));
+        gitlet("undo");
+        assertEquals("This is not a wug.", getText(wugFileName));
+        gitlet("reset", "1");
+        gitlet("reset", "HEAD@{1}");
+        assertEquals("This is not a wug.", getText(wugFileName));
+        assertTrue(gitlet("reflog").contains("HEAD@{0}: reset"));
+    }
+
+    /**
+     * archive writes the files of a commit without touching the working directory.
+     */
+    @Test
+    public void testArchive() throws IOException {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String zipName = TESTING_DIR + "wug.zip";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("archive", "-o", zipName, "master");
+        assertEquals("This is not a wug.", getText(wugFileName));
+        try (ZipFile zip = new ZipFile(zipName)) {
+            byte[] content = new byte[64];
+            int n = zip.getInputStream(zip.getEntry(wugFileName)).read(content);
+            assertEquals("This is a wug.", new String(content, 0, n, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * A file committed as executable is archived with mode 0755, the others with 0644.
+     */
+    @Test
+    public void testArchiveMode() throws IOException {
+        String wugFileName = TESTING_DIR + "wug.sh";
+        String tarName = TESTING_DIR + "wug.tar";
+        createFile(wugFileName, "echo wug");
+        new File(wugFileName).setExecutable(true);
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("archive", "-o", tarName, "master");
+        byte[] header = Files.readAllBytes(Paths.get(tarName));
+        assertEquals("0000755", new String(header, 100, 7, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * grep --all finds a line in every commit that has it, and not in the others.
+     */
+    @Test
+    public void testGrepAll() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        createFile(hugFileName, "This is a wug too.");
+        gitlet("add", hugFileName);
+        gitlet("commit", "added hug");
+        String[] lines = gitlet("grep", "wug", "--all").trim().split(LINE_SEPARATOR);
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].endsWith(":" + hugFileName + ":1:This is a wug too."));
+        assertTrue(gitlet("grep", "-l", "too", "1").trim().isEmpty());
+    }
+
+    /**
+     * The contents read by diff stay cached for the next commands of the same JVM.
+     */
+    @Test
+    public void testContentCache() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("diff", "1", "2");
+        long hits = cacheHits();
+        assertTrue(gitlet("diff", "1", "2").contains("+This is not a wug."));
+        assertTrue(cacheHits() >= hits + 2);
+    }
+
+    /**
+     * Checking out a branch restores every file of a directory, copied in parallel.
+     */
+    @Test
+    public void testCheckoutManyFiles() {
+        gitlet("init");
+        for ( int i = 0; i < 50; i++ ) {
+            createFile(TESTING_DIR + "wug" + i + ".txt", "This is wug " + i + ".");
+        }
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "added wugs");
+        gitlet("branch", "b");
+        for ( int i = 0; i < 50; i++ ) {
+            writeFile(TESTING_DIR + "wug" + i + ".txt", "This is not wug " + i + ".");
+        }
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "changed wugs");
+        gitlet("checkout", "b");
+        for ( int i = 0; i < 50; i++ ) {
+            assertEquals("This is wug " + i + ".", getText(TESTING_DIR + "wug" + i + ".txt"));
+        }
+    }
+
+    /**
+     * cherry-pick merges the lines a commit changed into a file the head changed too, and
+     * revert takes them back out.
+     */
+    @Test
+    public void testCherryPickAndRevert() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "a\nb\nc\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "b");
+        gitlet("checkout", "b");
+        writeFile(wugFileName, "a\nb\nC\n");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed c");
+        gitlet("checkout", "master");
+        writeFile(wugFileName, "A\nb\nc\n");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed a");
+        gitlet("cherry-pick", "--yes", "b");
+        assertEquals("A\nb\nC\n", getText(wugFileName));
+        assertTrue(gitlet("log").contains("changed c"));
+        gitlet("revert", "--yes", "4");
+        assertEquals("A\nb\nc\n", getText(wugFileName));
+        assertTrue(gitlet("log").contains("Revert \"changed c\""));
+    }
+
+    /**
+     * bisect run finds the commit that broke the file by running a script on each step, and
+     * bisect reset goes back to the head of the branch.
+     */
+    @Test
+    public void testBisectRun() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String scriptName = TESTING_DIR + "test.sh";
+        createFile(wugFileName, "This is wug 0.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "wug 0");
+        for ( int i = 1; i < 10; i++ ) {
+            writeFile(wugFileName, (i >= 6 ? "This is a bug " : "This is wug ") + i + ".");
+            gitlet("add", wugFileName);
+            gitlet("commit", "wug " + i);
+        }
+        createFile(scriptName, "#!/bin/sh\ngrep -q bug " + wugFileName + " && exit 1\nexit 0\n");
+        new File(scriptName).setExecutable(true);
+        assertTrue(gitlet("bisect", "start", "10", "1").contains("Bisecting"));
+        String result = gitlet("bisect", "run", scriptName);
+        assertTrue(result.contains("is the first bad commit"));
+        assertTrue(result.contains("wug 6"));
+        assertTrue(gitlet("commit", "wug").contains("bisect"));
+        gitlet("bisect", "reset");
+        assertEquals("This is a bug 9.", getText(wugFileName));
+    }
+
+    /**
+     * bisect reset restores the files of the branch also when the head of the last step
+     * was never saved, as when bisect run is interrupted.
+     */
+    @Test
+    public void testBisectResetAfterInterrupt() throws IOException {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String hugFileName = TESTING_DIR + "hug.txt";
+        File state = new File(".gitlet/git.ser");
+        File saved = new File(TESTING_DIR + "git.ser");
+        createFile(wugFileName, "This is wug 0.");
+        createFile(hugFileName, "This is a hug.");
+        gitlet("init");
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "wug 0");
+        for ( int i = 1; i < 8; i++ ) {
+            // only wug 5 and wug 6 have another hug
+            writeFile(wugFileName, "This is wug " + i + ".");
+            writeFile(hugFileName, i == 5 || i == 6 ? "This is a bug." : "This is a hug.");
+            gitlet("add", TESTING_DIR);
+            gitlet("commit", "wug " + i);
+        }
+        // the first step tests wug 3, the next one wug 5
+        gitlet("bisect", "start", "7", "0");
+        Files.copy(state.toPath(), saved.toPath());
+        assertTrue(gitlet("bisect", "good").contains("wug 5"));
+        assertEquals("This is a bug.", getText(hugFileName));
+        // the step moved the working files, but git.ser still has the head before it
+        Files.copy(saved.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        gitlet("bisect", "reset");
+        assertEquals("This is wug 7.", getText(wugFileName));
+        assertEquals("This is a hug.", getText(hugFileName));
+    }
+
+    /**
+     * worktree add checks a branch out in another folder from the same store, and the branch
+     * can not be checked out here at the same time.
+     */
+    @Test
+    public void testWorktreeAdd() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String worktree = TESTING_DIR + "wt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "b");
+        assertTrue(gitlet("worktree", "add", worktree, "b").contains("Prepared"));
+        assertEquals("This is a wug.", getText(worktree + "/" + wugFileName));
+        assertTrue(new File(worktree + "/.gitlet/worktree").exists());
+        assertTrue(gitlet("checkout", "b").contains("is checked out in"));
+        assertTrue(gitlet("worktree", "list").contains("<b>"));
+        // the files of the worktree are not seen as changes of this one
+        String status = gitlet("status");
+        assertTrue(!status.contains("=== Staged Files ==="));
+        assertTrue(!status.contains("=== Modifications Not Staged For Commit ==="));
+        assertTrue(!status.contains(worktree + "/" + wugFileName));
+        gitlet("worktree", "remove", worktree);
+        assertTrue(gitlet("checkout", "b").contains("Switched to branch <b>"));
+    }
+
+    /**
+     * fast-import reads a stream into a new branch, and fast-export writes it back out.
+     */
+    @Test
+    public void testFastImportExport() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String streamName = TESTING_DIR + "stream.fi";
+        String exportName = TESTING_DIR + "export.fi";
+        gitlet("init");
+        createFile(streamName, "blob\nmark :1\ndata 14\nThis is a wug.\n"
+            + "commit refs/heads/imported\nmark :2\ncommitter A <a@b> 1700000000 +0000\n"
+            + "data 9\nadded wug\nM 100644 :1 " + wugFileName + "\n\n"
+            + "commit refs/heads/imported\ncommitter A <a@b> 1700000001 +0000\n"
+            + "data 11\nchanged wug\nfrom :2\nM 100644 inline " + wugFileName + "\n"
+            + "data 18\nThis is not a wug.\n\n");
+        assertTrue(gitlet("fast-import", streamName).contains("Imported 2 commits and 2 files"));
+        gitlet("checkout", "imported");
+        assertEquals("This is not a wug.", getText(wugFileName));
+        assertTrue(gitlet("log").contains("added wug"));
+        gitlet("fast-export", "-o", exportName, "imported");
+        String export = getText(exportName);
+        assertTrue(export.contains("commit refs/heads/imported"));
+        assertTrue(export.contains("M 100644 :3 " + wugFileName));
+    }
+
+    /**
+     * An import that fails partway leaves no commit behind.
+     */
+    @Test
+    public void testFastImportFailure() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String streamName = TESTING_DIR + "stream.fi";
+        gitlet("init");
+        createFile(streamName, "blob\nmark :1\ndata 14\nThis is a wug.\n"
+            + "commit refs/heads/imported\nmark :2\ncommitter A <a@b> 1700000000 +0000\n"
+            + "data 9\nadded wug\nM 100644 :1 " + wugFileName + "\n\n"
+            + "commit refs/heads/imported\ncommitter A <a@b> 1700000001 +0000\n"
+            + "data 11\nchanged wug\nfrom :2\nM 100644 :7 " + wugFileName + "\n\n");
+        assertTrue(gitlet("fast-import", streamName).contains("The import stopped"));
+        assertTrue(!gitlet("global-log").contains("added wug"));
+        assertTrue(!new File(".gitlet/1").exists());
+    }
+
+    private static long cacheHits() {
+        String stats = gitlet("cache-stats");
+        Matcher m = Pattern.compile("(\\d+) hits").matcher(stats);
+        assertTrue(m.find());
+        return Long.parseLong(m.group(1));
+    }
+
     private static String gitlet(String... args) {
         PrintStream originalOut = System.out;
         InputStream originalIn = System.in;
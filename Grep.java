@@ -0,0 +1,209 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+/*Search of a pattern in the files of many commits. A version of a file is searched once
+however many commits and paths have it: the trees of the commits are walked once each to
+find the distinct versions, the versions are searched by a pool of threads, and the hits are
+then mapped back to the paths of every commit through the trees, again once per tree. Stored
+files are read through a memory map, chunked ones are streamed*/
+
+public class Grep {
+    private final Pattern pattern;
+    private final HashSet<String> trees = new HashSet<String>();
+    // content hash -> stored copy, for every distinct version
+    private final HashMap<String, String> versions = new HashMap<String, String>();
+    // content hash -> the hits of the versions that match
+    private final HashMap<String, Hits> hits = new HashMap<String, Hits>();
+    // tree hash -> {path below the tree, content hash} of the matching files, in path order
+    private final HashMap<String, List<String[]>> found = new HashMap<String, List<String[]>>();
+
+    /* the matching lines of one version as "<line number>:<line>". A binary file has no
+    lines to show, only whether it matches */
+    private static class Hits {
+        final ArrayList<String> lines = new ArrayList<String>();
+        boolean binary;
+
+        boolean any() {
+            return binary || !lines.isEmpty();
+        }
+    }
+
+    public Grep(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /* add the versions of the files of the tree, sub trees already seen are skipped */
+    public void addTree(String treeHash) {
+        if ( treeHash == null || treeHash.equals(Tree.EMPTY) || !trees.add(treeHash) ) {
+            return;
+        }
+        Tree t = Tree.load(treeHash);
+        for ( Map.Entry<String, String> e : t.files.entrySet() ) {
+            if ( !versions.containsKey(e.getValue()) ) {
+                versions.put(e.getValue(), Tree.location(t.stored.get(e.getKey())));
+            }
+        }
+        for ( String sub : t.dirs.values() ) {
+            addTree(sub);
+        }
+    }
+
+    /* search every version that was added, on the given number of threads */
+    public void scan(int threads) throws IOException {
+        ArrayList<String> hashes = new ArrayList<String>(versions.keySet());
+        ArrayList<Future<Hits>> results = new ArrayList<Future<Hits>>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for ( String hash : hashes ) {
+                final String location = versions.get(hash);
+                results.add(pool.submit(new Callable<Hits>() {
+                    public Hits call() throws IOException {
+                        return search(location);
+                    }
+                }));
+            }
+            for ( int i = 0; i < hashes.size(); i++ ) {
+                Hits found = results.get(i).get();
+                if ( found.any() ) {
+                    hits.put(hashes.get(i), found);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The search was interrupted", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* the matching lines of the version, empty for a binary file */
+    public List<String> lines(String hash) {
+        return hits.get(hash).lines;
+    }
+
+    /* whether the version that matches is a binary file */
+    public boolean isBinary(String hash) {
+        return hits.get(hash).binary;
+    }
+
+    /* the matching files below the tree, {path, content hash}, in path order */
+    public List<String[]> matches(String treeHash) {
+        List<String[]> result = found.get(treeHash);
+        if ( result != null ) {
+            return result;
+        }
+        result = new ArrayList<String[]>();
+        if ( !hits.isEmpty() && treeHash != null && !treeHash.equals(Tree.EMPTY) ) {
+            Tree t = Tree.load(treeHash);
+            for ( Map.Entry<String, String> e : t.files.entrySet() ) {
+                if ( hits.containsKey(e.getValue()) ) {
+                    result.add(new String[] { e.getKey(), e.getValue() });
+                }
+            }
+            for ( Map.Entry<String, String> e : t.dirs.entrySet() ) {
+                for ( String[] m : matches(e.getValue()) ) {
+                    result.add(new String[] { e.getKey() + "/" + m[0], m[1] });
+                }
+            }
+            Collections.sort(result, new Comparator<String[]>() {
+                public int compare(String[] a, String[] b) {
+                    return a[0].compareTo(b[0]);
+                }
+            });
+        }
+        found.put(treeHash, result);
+        return result;
+    }
+
+    /* the matching lines of one stored file */
+    private Hits search(String location) throws IOException {
+        Hits result = new Hits();
+        ArrayList<String> lines = result.lines;
+        Matcher matcher = pattern.matcher("");
+        if ( ChunkStore.isChunked(location) ) {
+            try (BufferedInputStream stream = new BufferedInputStream(ChunkStore.open(location))) {
+                // the first bytes tell whether the file is binary, then it is read from the start
+                stream.mark(8000);
+                byte[] head = new byte[8000];
+                int read = 0;
+                for ( int n; read < head.length && (n = stream.read(head, read, head.length - read)) > 0; ) {
+                    read += n;
+                }
+                stream.reset();
+                boolean binary = LineDiff.isBinary(Arrays.copyOf(head, read));
+                BufferedReader in = new BufferedReader(new InputStreamReader(stream,
+                    binary ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8));
+                String line;
+                for ( int n = 1; (line = in.readLine()) != null; n++ ) {
+                    if ( matcher.reset(line).find() ) {
+                        if ( binary ) {
+                            result.binary = true;
+                            return result;
+                        }
+                        lines.add(n + ":" + line);
+                    }
+                }
+            }
+            return result;
+        }
+        try (FileChannel channel = FileChannel.open(Gitlet.store(location).toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if ( size == 0 ) {
+                return result;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            boolean binary = false;
+            for ( int i = 0; i < Math.min(size, 8000); i++ ) {
+                if ( map.get(i) == 0 ) {
+                    binary = true;
+                    break;
+                }
+            }
+            // binary files are read one byte per char, so a pattern can still match them
+            CharBuffer text = binary ? StandardCharsets.ISO_8859_1.decode(map)
+                : StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE).decode(map);
+            int start = 0;
+            for ( int n = 1; start < text.length(); n++ ) {
+                int end = start;
+                while ( end < text.length() && text.charAt(end) != '\n' ) {
+                    end++;
+                }
+                int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+                if ( matcher.reset(text.subSequence(start, lineEnd)).find() ) {
+                    if ( binary ) {
+                        result.binary = true;
+                        return result;
+                    }
+                    lines.add(n + ":" + text.subSequence(start, lineEnd));
+                }
+                start = end + 1;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,346 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+/*Line based diff of two texts, using the O(ND) algorithm of Myers in its linear space form.
+The common head and tail of the two texts are cut off before the search, so small edits of
+big files stay cheap, and a big rewrite needs memory for the lines only*/
+
+public class LineDiff {
+
+    /* split the content into lines, without the line separators */
+    public static List<String> lines(byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        ArrayList<String> result = new ArrayList<String>();
+        int start = 0;
+        for ( int i = 0; i < text.length(); i++ ) {
+            if ( text.charAt(i) == '\n' ) {
+                int end = i > start && text.charAt(i - 1) == '\r' ? i - 1 : i;
+                result.add(text.substring(start, end));
+                start = i + 1;
+            }
+        }
+        if ( start < text.length() ) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /* a file is treated as binary when its first 8000 bytes hold a NUL byte */
+    public static boolean isBinary(byte[] content) {
+        int n = Math.min(content.length, 8000);
+        for ( int i = 0; i < n; i++ ) {
+            if ( content[i] == 0 ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* for every line of a, the index of the same line in b, or -1 if the line was deleted.
+    The matched indexes are increasing, so they describe a longest common subsequence */
+    public static int[] match(List<String> a, List<String> b) {
+        // compare small integers instead of strings
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        int[] x = new int[a.size()];
+        int[] y = new int[b.size()];
+        for ( int i = 0; i < x.length; i++ ) {
+            x[i] = id(ids, a.get(i));
+        }
+        for ( int j = 0; j < y.length; j++ ) {
+            y[j] = id(ids, b.get(j));
+        }
+        int[] result = new int[x.length];
+        Arrays.fill(result, -1);
+
+        int head = 0;
+        while ( head < x.length && head < y.length && x[head] == y[head] ) {
+            result[head] = head;
+            head++;
+        }
+        int tail = 0;
+        while ( tail < x.length - head && tail < y.length - head
+                && x[x.length - 1 - tail] == y[y.length - 1 - tail] ) {
+            result[x.length - 1 - tail] = y.length - 1 - tail;
+            tail++;
+        }
+        myers(x, head, x.length - tail, y, head, y.length - tail, result);
+        return result;
+    }
+
+    private static int id(HashMap<String, Integer> ids, String line) {
+        Integer id = ids.get(line);
+        if ( id == null ) {
+            id = ids.size();
+            ids.put(line, id);
+        }
+        return id;
+    }
+
+    /* Myers in linear space: find the middle snake of the shortest edit script, keep its
+    matched lines, and solve the parts before and after it the same way. Only two arrays of
+    N+M entries are used, whatever the number of edits. A line that is only in one of the
+    texts can not be matched, so the search skips those, and a file that was rewritten as a
+    whole costs no search at all */
+    private static void myers(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, int[] result) {
+        int ids = 0;
+        for ( int i = aStart; i < aEnd; i++ ) {
+            ids = Math.max(ids, a[i] + 1);
+        }
+        for ( int j = bStart; j < bEnd; j++ ) {
+            ids = Math.max(ids, b[j] + 1);
+        }
+        boolean[] inA = new boolean[ids];
+        boolean[] inB = new boolean[ids];
+        for ( int i = aStart; i < aEnd; i++ ) {
+            inA[a[i]] = true;
+        }
+        for ( int j = bStart; j < bEnd; j++ ) {
+            inB[b[j]] = true;
+        }
+        int[] aLines = keep(a, aStart, aEnd, inB);
+        int[] bLines = keep(b, bStart, bEnd, inA);
+        if ( aLines.length == 0 || bLines.length == 0 ) {
+            return;
+        }
+        int[] x = new int[aLines.length];
+        int[] y = new int[bLines.length];
+        for ( int i = 0; i < x.length; i++ ) {
+            x[i] = a[aLines[i]];
+        }
+        for ( int j = 0; j < y.length; j++ ) {
+            y[j] = b[bLines[j]];
+        }
+        int[] matched = new int[x.length];
+        Arrays.fill(matched, -1);
+        int max = x.length + y.length;
+        split(x, 0, x.length, y, 0, y.length, new int[2 * max + 3], new int[2 * max + 3], max + 1, matched);
+        for ( int i = 0; i < matched.length; i++ ) {
+            if ( matched[i] >= 0 ) {
+                result[aLines[i]] = bLines[matched[i]];
+            }
+        }
+    }
+
+    /* the positions of the lines that are also in the other text */
+    private static int[] keep(int[] lines, int start, int end, boolean[] inOther) {
+        int count = 0;
+        for ( int i = start; i < end; i++ ) {
+            if ( inOther[lines[i]] ) {
+                count++;
+            }
+        }
+        int[] kept = new int[count];
+        for ( int i = start, k = 0; i < end; i++ ) {
+            if ( inOther[lines[i]] ) {
+                kept[k++] = i;
+            }
+        }
+        return kept;
+    }
+
+    private static void split(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd,
+            int[] forward, int[] backward, int offset, int[] result) {
+        while ( aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart] ) {
+            result[aStart++] = bStart++;
+        }
+        while ( aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1] ) {
+            result[--aEnd] = --bEnd;
+        }
+        if ( aStart == aEnd || bStart == bEnd ) {
+            return;
+        }
+        int[] snake = middleSnake(a, aStart, aEnd, b, bStart, bEnd, forward, backward, offset);
+        for ( int x = snake[0], y = snake[1]; x < snake[2]; x++, y++ ) {
+            result[x] = y;
+        }
+        split(a, aStart, snake[0], b, bStart, snake[1], forward, backward, offset, result);
+        split(a, snake[2], aEnd, b, snake[3], bEnd, forward, backward, offset, result);
+    }
+
+    /* {x, y, end x, end y} of the diagonal run in the middle of a shortest edit script, found
+    by searching from both ends at once until the two searches meet. backward[k] holds how far
+    the search from the end got on diagonal k, counted from the end */
+    private static int[] middleSnake(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd,
+            int[] forward, int[] backward, int offset) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for ( int d = 0; d <= (n + m + 1) / 2; d++ ) {
+            for ( int k = -d; k <= d; k += 2 ) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                    ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while ( x < n && y < m && a[aStart + x] == b[bStart + y] ) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int r = delta - k;
+                if ( odd && r >= -(d - 1) && r <= d - 1 && x + backward[offset + r] >= n ) {
+                    return new int[] { aStart + x0, bStart + y0, aStart + x, bStart + y };
+                }
+            }
+            for ( int k = -d; k <= d; k += 2 ) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                    ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while ( x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y] ) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                int f = delta - k;
+                if ( !odd && f >= -d && f <= d && x + forward[offset + f] >= n ) {
+                    return new int[] { aEnd - x, bEnd - y, aEnd - x0, bEnd - y0 };
+                }
+            }
+        }
+        // not reached: the searches meet by the middle of the longest script
+        throw new IllegalStateException("No middle snake");
+    }
+
+    /* the lines of a three way merge, and the number of regions both sides changed */
+    public static class Merged {
+        final List<String> lines;
+        final int conflicts;
+
+        Merged(List<String> lines, int conflicts) {
+            this.lines = lines;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /* merge the changes ours and theirs made to base. The lines of base that both kept cut
+    the texts into regions: a region only one side changed takes that side, and a region both
+    changed differently is a conflict, written between <<<<<<< ======= >>>>>>> markers */
+    public static Merged merge3(List<String> base, List<String> ours, List<String> theirs,
+            String oursName, String theirsName) {
+        int[] toOurs = match(base, ours);
+        int[] toTheirs = match(base, theirs);
+        ArrayList<String> out = new ArrayList<String>();
+        int conflicts = 0;
+        // where the region after the last kept line starts, in each text
+        int b = 0;
+        int o = 0;
+        int t = 0;
+        for ( int i = 0; i <= base.size(); i++ ) {
+            if ( i < base.size() && (toOurs[i] < 0 || toTheirs[i] < 0) ) {
+                continue;
+            }
+            int oEnd = i < base.size() ? toOurs[i] : ours.size();
+            int tEnd = i < base.size() ? toTheirs[i] : theirs.size();
+            List<String> baseRegion = base.subList(b, i);
+            List<String> oursRegion = ours.subList(o, oEnd);
+            List<String> theirsRegion = theirs.subList(t, tEnd);
+            if ( oursRegion.equals(baseRegion) ) {
+                out.addAll(theirsRegion);
+            } else if ( theirsRegion.equals(baseRegion) || theirsRegion.equals(oursRegion) ) {
+                out.addAll(oursRegion);
+            } else {
+                out.add("<<<<<<< " + oursName);
+                out.addAll(oursRegion);
+                out.add("=======");
+                out.addAll(theirsRegion);
+                out.add(">>>>>>> " + theirsName);
+                conflicts++;
+            }
+            if ( i < base.size() ) {
+                out.add(base.get(i));
+            }
+            b = i + 1;
+            o = oEnd + 1;
+            t = tEnd + 1;
+        }
+        return new Merged(out, conflicts);
+    }
+
+    /* the unified diff of the two texts with the given number of context lines, or an empty
+    string when they are equal */
+    public static String unified(List<String> a, List<String> b, int context) {
+        int[] match = match(a, b);
+        // walk both texts at once: ' ' keeps a line, '-' deletes a line of a, '+' adds a line of b
+        ArrayList<Character> ops = new ArrayList<Character>();
+        int i = 0;
+        int j = 0;
+        while ( i < a.size() || j < b.size() ) {
+            if ( i < a.size() && match[i] < 0 ) {
+                ops.add('-');
+                i++;
+            } else if ( i < a.size() && match[i] == j ) {
+                ops.add(' ');
+                i++;
+                j++;
+            } else {
+                ops.add('+');
+                j++;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        int op = 0;
+        int aLine = 0;
+        int bLine = 0;
+        while ( op < ops.size() ) {
+            if ( ops.get(op) == ' ' ) {
+                op++;
+                aLine++;
+                bLine++;
+                continue;
+            }
+            // a hunk starts with up to context kept lines and grows while the next change is close
+            int start = Math.max(0, op - context);
+            int hunkA = aLine - (op - start);
+            int hunkB = bLine - (op - start);
+            int end = op;
+            int quiet = 0;
+            while ( end < ops.size() && quiet <= 2 * context ) {
+                quiet = ops.get(end) == ' ' ? quiet + 1 : 0;
+                end++;
+            }
+            if ( quiet > context ) {
+                end -= quiet - context;
+            }
+            int countA = 0;
+            int countB = 0;
+            StringBuilder body = new StringBuilder();
+            int ai = hunkA;
+            int bi = hunkB;
+            for ( int o = start; o < end; o++ ) {
+                char c = ops.get(o);
+                if ( c == ' ' ) {
+                    body.append(' ').append(a.get(ai++)).append('\n');
+                    bi++;
+                    countA++;
+                    countB++;
+                } else if ( c == '-' ) {
+                    body.append('-').append(a.get(ai++)).append('\n');
+                    countA++;
+                } else {
+                    body.append('+').append(b.get(bi++)).append('\n');
+                    countB++;
+                }
+            }
+            sb.append("@@ -").append(range(hunkA, countA)).append(" +").append(range(hunkB, countB)).append(" @@\n");
+            sb.append(body);
+            aLine = ai;
+            bLine = bi;
+            op = end;
+        }
+        return sb.toString();
+    }
+
+    private static String range(int start, int count) {
+        if ( count == 0 ) {
+            return start + ",0";
+        }
+        return count == 1 ? String.valueOf(start + 1) : (start + 1) + "," + count;
+    }
+}
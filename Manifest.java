@@ -0,0 +1,137 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+/*The flat list of the files of a commit, read from its trees: the ids of the paths in the
+PathTable in increasing order, with the content hash and the stored copy of each file. The
+hashes and stored copies are the ones of the loaded trees, so building a manifest only
+allocates the arrays. hashes() and locations() are read only maps over them*/
+
+public class Manifest {
+    private int[] paths;
+    private String[] hashes;
+    private int[][] stored;
+    private int size = 0;
+
+    public Manifest(String treeHash) {
+        paths = new int[64];
+        hashes = new String[64];
+        stored = new int[64][];
+        walk(treeHash, null);
+        // sort the entries by path id, the index rides in the low half of the key
+        long[] keys = new long[size];
+        for ( int i = 0; i < size; i++ ) {
+            keys[i] = ((long) paths[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sortedPaths = new int[size];
+        String[] sortedHashes = new String[size];
+        int[][] sortedStored = new int[size][];
+        for ( int i = 0; i < size; i++ ) {
+            int from = (int) keys[i];
+            sortedPaths[i] = paths[from];
+            sortedHashes[i] = hashes[from];
+            sortedStored[i] = stored[from];
+        }
+        paths = sortedPaths;
+        hashes = sortedHashes;
+        stored = sortedStored;
+    }
+
+    private void walk(String treeHash, String prefix) {
+        Tree t = Tree.load(treeHash);
+        for ( Map.Entry<String, String> e : t.files.entrySet() ) {
+            if ( size == paths.length ) {
+                paths = Arrays.copyOf(paths, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+                stored = Arrays.copyOf(stored, size * 2);
+            }
+            paths[size] = PathTable.id(prefix == null ? e.getKey() : prefix + "/" + e.getKey());
+            hashes[size] = e.getValue();
+            stored[size] = t.stored.get(e.getKey());
+            size++;
+        }
+        for ( Map.Entry<String, String> e : t.dirs.entrySet() ) {
+            walk(e.getValue(), prefix == null ? e.getKey() : prefix + "/" + e.getKey());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* the position of the path in the arrays, or -1 if the commit does not have it */
+    private int indexOf(Object path) {
+        if ( !(path instanceof String) ) {
+            return -1;
+        }
+        int id = PathTable.find((String) path);
+        int i = id < 0 ? -1 : Arrays.binarySearch(paths, id);
+        return i < 0 ? -1 : i;
+    }
+
+    /* key: file name value: SHA-1 of the content */
+    public Map<String, String> hashes() {
+        return new View(false);
+    }
+
+    /* key: file name value: path of the stored file */
+    public Map<String, String> locations() {
+        return new View(true);
+    }
+
+    private class View extends AbstractMap<String, String> {
+        private final boolean locations;
+
+        View(boolean locations) {
+            this.locations = locations;
+        }
+
+        private String value(int i) {
+            return locations ? Tree.location(stored[i]) : hashes[i];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        public String get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : value(i);
+        }
+
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                public int size() {
+                    return size;
+                }
+
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int next = 0;
+
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        public Map.Entry<String, String> next() {
+                            if ( next >= size ) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = next++;
+                            return new AbstractMap.SimpleImmutableEntry<String, String>(
+                                PathTable.path(paths[i]), value(i));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+/*What merging the head of a branch into the current head does to every file, worked out from
+the trees alone. Only the paths that changed since the merge base on one of the two sides can
+have an outcome, so the plan is built from one walk over the base, ours and theirs trees
+together (see Tree.diff3), which skips the sub trees that are the same on all three. Only the
+changed paths are kept, however big the trees are. merge applies the plan to the working
+directory, merge --dry-run only prints it, and --report writes it as JSON*/
+
+public class MergePlan {
+    // the file of the other branch is new here, it is copied and staged
+    static final String ADDED = "added";
+    // the file of the other branch replaces the one here
+    static final String UPDATED = "updated";
+    // the file is removed here
+    static final String DELETED = "deleted";
+    // both sides changed the file, the other version is written next to it as .conflicted
+    static final String CONFLICT = "conflict";
+    // the file stays as it is here
+    static final String KEPT = "kept";
+
+    /* one path and what the merge does with it. base, ours and theirs are the content hashes,
+    null when the file does not exist on that side. location is the stored file of theirs */
+    public static class Entry {
+        final String path;
+        final String outcome;
+        final String base;
+        final String ours;
+        final String theirs;
+        final String location;
+
+        Entry(String path, String outcome, String base, String ours, String theirs, String location) {
+            this.path = path;
+            this.outcome = outcome;
+            this.base = base;
+            this.ours = ours;
+            this.theirs = theirs;
+            this.location = location;
+        }
+    }
+
+    final String branch;
+    final CommitNode base;
+    final CommitNode ours;
+    final CommitNode theirs;
+    final ArrayList<Entry> entries = new ArrayList<Entry>();
+    private int conflicts = 0;
+
+    public MergePlan(String branch, CommitNode base, CommitNode ours, CommitNode theirs) {
+        this.branch = branch;
+        this.base = base;
+        this.ours = ours;
+        this.theirs = theirs;
+        // one walk over the three trees, which gives the changed paths already in order
+        Tree.diff3(base.treeHash, ours.treeHash, theirs.treeHash, new Tree.Visitor3() {
+            public void visit(String path, String[] b, String[] o, String[] t) {
+                add(path, b, o, t);
+            }
+        });
+    }
+
+    private void add(String path, String[] b, String[] o, String[] t) {
+        String outcome = outcome(hash(b), hash(o), hash(t));
+        if ( outcome == CONFLICT ) {
+            conflicts++;
+        }
+        entries.add(new Entry(path, outcome, hash(b), hash(o), hash(t), t == null ? null : t[1]));
+    }
+
+    private static String hash(String[] entry) {
+        return entry == null ? null : entry[0];
+    }
+
+    /* the rules merge has always used: a file the other branch has is taken when only that
+    side changed it or this side does not have it, and is a conflict when all three differ.
+    A file the other branch does not have is removed */
+    private static String outcome(String b, String o, String t) {
+        if ( t == null ) {
+            return o == null ? KEPT : DELETED;
+        }
+        if ( o == null ) {
+            return ADDED;
+        }
+        if ( !same(b, t) && same(b, o) ) {
+            return UPDATED;
+        }
+        if ( !same(b, t) && !same(b, o) && !same(o, t) ) {
+            return CONFLICT;
+        }
+        return KEPT;
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public int conflicts() {
+        return conflicts;
+    }
+
+    /* the files that change, one per line, and the number of conflicts */
+    public void print() {
+        for ( Entry e : entries ) {
+            if ( e.outcome != KEPT ) {
+                System.out.println(e.outcome + ": " + e.path);
+            }
+        }
+        System.out.println("Merging <" + branch + "> gives " + conflicts
+            + (conflicts == 1 ? " conflict" : " conflicts"));
+    }
+
+    /* write the plan as JSON to the file, or print it when the file is "-" */
+    public void writeReport(String file, boolean dryRun) throws IOException {
+        String json = toJson(dryRun);
+        if ( file.equals("-") ) {
+            System.out.print(json);
+        } else {
+            Files.write(Paths.get(file), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public String toJson(boolean dryRun) {
+        StringBuilder out = new StringBuilder();
+        out.append("{\n");
+        out.append("  \"branch\": ").append(quote(branch)).append(",\n");
+        out.append("  \"dryRun\": ").append(dryRun).append(",\n");
+        out.append("  \"base\": ").append(quote(base.hash)).append(",\n");
+        out.append("  \"ours\": ").append(quote(ours.hash)).append(",\n");
+        out.append("  \"theirs\": ").append(quote(theirs.hash)).append(",\n");
+        out.append("  \"conflicts\": ").append(conflicts).append(",\n");
+        out.append("  \"files\": [");
+        for ( int i = 0; i < entries.size(); i++ ) {
+            Entry e = entries.get(i);
+            out.append(i == 0 ? "\n" : ",\n");
+            out.append("    {\"path\": ").append(quote(e.path));
+            out.append(", \"outcome\": ").append(quote(e.outcome));
+            out.append(", \"base\": ").append(quote(e.base));
+            out.append(", \"ours\": ").append(quote(e.ours));
+            out.append(", \"theirs\": ").append(quote(e.theirs));
+            if ( e.outcome == CONFLICT && !dryRun ) {
+                out.append(", \"conflictFile\": ").append(quote(e.path + ".conflicted"));
+            }
+            out.append("}");
+        }
+        out.append(entries.isEmpty() ? "]\n" : "\n  ]\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private static String quote(String s) {
+        if ( s == null ) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder("\"");
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            if ( c == '"' || c == '\\' ) {
+                out.append('\\').append(c);
+            } else if ( c == '\n' ) {
+                out.append("\\n");
+            } else if ( c == '\t' ) {
+                out.append("\\t");
+            } else if ( c < 0x20 ) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,71 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+/*Bloom filter of the paths a commit changed, and of their parent directories. If the filter
+says no, the commit did not touch the path; if it says yes the trees have to be compared.
+About 10 bits per path and 7 probes give a false positive rate below 1%*/
+
+public class PathBloom {
+    private static final int BITS_PER_PATH = 10;
+    private static final int PROBES = 7;
+    // commits that change more paths than this get no filter, like in git
+    static final int MAX_PATHS = 512;
+
+    /* the filter of the changed paths, or null if there are too many of them */
+    public static long[] build(Collection<String> paths) {
+        HashSet<String> all = new HashSet<String>();
+        for ( String path : paths ) {
+            all.add(path);
+            int slash = path.lastIndexOf('/');
+            while ( slash > 0 ) {
+                path = path.substring(0, slash);
+                all.add(path);
+                slash = path.lastIndexOf('/');
+            }
+        }
+        if ( all.size() > MAX_PATHS ) {
+            return null;
+        }
+        long[] bits = new long[Math.max(1, (all.size() * BITS_PER_PATH + 63) / 64)];
+        for ( String path : all ) {
+            long h = hash(path);
+            int h1 = (int) h;
+            int h2 = (int) (h >>> 32);
+            for ( int i = 0; i < PROBES; i++ ) {
+                int bit = Math.floorMod(h1 + i * h2, bits.length * 64);
+                bits[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+        return bits;
+    }
+
+    /* false if the path is surely not in the filter. A missing filter knows nothing */
+    public static boolean mightContain(long[] bits, String path) {
+        if ( bits == null ) {
+            return true;
+        }
+        long h = hash(path);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for ( int i = 0; i < PROBES; i++ ) {
+            int bit = Math.floorMod(h1 + i * h2, bits.length * 64);
+            if ( (bits[bit >>> 6] & (1L << (bit & 63))) == 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* 64 bit FNV-1a over the UTF-8 bytes, with a final mix so both halves are usable */
+    private static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for ( byte b : path.getBytes(StandardCharsets.UTF_8) ) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
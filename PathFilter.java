@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+/*A list of gitignore style patterns, compiled once when the filter is built.
+Blank lines and lines starting with # are skipped, ! negates a pattern, a trailing / only
+matches directories, and a pattern with a / in it is matched from the top of the repository.
+Otherwise the pattern is matched against the file name at any depth. The last matching
+pattern wins*/
+
+public class PathFilter {
+    private final ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+    private final ArrayList<Boolean> negated = new ArrayList<Boolean>();
+    private final ArrayList<Boolean> dirOnly = new ArrayList<Boolean>();
+    private final ArrayList<Boolean> anchored = new ArrayList<Boolean>();
+    // plain file names without wildcards, checked with one hash lookup instead of a regex
+    private final HashSet<String> plainNames = new HashSet<String>();
+    private boolean hasNegation = false;
+    // for mayCoverBelow: the text before the first wildcard of the anchored patterns
+    private final ArrayList<String> anchoredPrefixes = new ArrayList<String>();
+    private boolean hasUnanchored = false;
+
+    public PathFilter(List<String> lines) {
+        for ( String line : lines ) {
+            if ( line.trim().startsWith("!") ) {
+                hasNegation = true;
+            }
+        }
+        for ( String line : lines ) {
+            String p = line.trim();
+            if ( p.isEmpty() || p.startsWith("#") ) {
+                continue;
+            }
+            boolean neg = p.startsWith("!");
+            if ( neg ) {
+                p = p.substring(1);
+            }
+            boolean dir = p.endsWith("/");
+            if ( dir ) {
+                p = p.substring(0, p.length() - 1);
+            }
+            boolean anchor = p.contains("/");
+            if ( p.startsWith("/") ) {
+                p = p.substring(1);
+            }
+            if ( p.isEmpty() ) {
+                continue;
+            }
+            if ( !neg ) {
+                if ( anchor ) {
+                    int wildcard = 0;
+                    while ( wildcard < p.length() && "*?[".indexOf(p.charAt(wildcard)) < 0 ) {
+                        wildcard++;
+                    }
+                    anchoredPrefixes.add(p.substring(0, wildcard));
+                } else {
+                    hasUnanchored = true;
+                }
+            }
+            // the order of the patterns only matters when some of them are negated
+            if ( !hasNegation && !dir && !anchor && !hasWildcard(p) ) {
+                plainNames.add(p);
+                continue;
+            }
+            patterns.add(compileGlob(p));
+            negated.add(neg);
+            dirOnly.add(dir);
+            anchored.add(anchor);
+        }
+    }
+
+    /* read the patterns of the given file. A missing file gives an empty filter */
+    public static PathFilter load(File file) {
+        if ( !file.exists() ) {
+            return new PathFilter(new ArrayList<String>());
+        }
+        try {
+            return new PathFilter(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Cannot read <" + file.getPath() + ">");
+            return new PathFilter(new ArrayList<String>());
+        }
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty() && plainNames.isEmpty();
+    }
+
+    /* whether the path itself matches, without looking at its parent directories. Paths use
+    / as separator and are relative to the top of the repository */
+    public boolean matches(String path, boolean isDirectory) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if ( plainNames.contains(name) ) {
+            return true;
+        }
+        boolean result = false;
+        for ( int i = 0; i < patterns.size(); i++ ) {
+            if ( dirOnly.get(i) && !isDirectory ) {
+                continue;
+            }
+            if ( result == !negated.get(i) ) {
+                // this pattern can not change the result
+                continue;
+            }
+            String target = anchored.get(i) ? path : name;
+            if ( patterns.get(i).matcher(target).matches() ) {
+                result = !negated.get(i);
+            }
+        }
+        return result;
+    }
+
+    /* whether the file or one of its parent directories matches */
+    public boolean covers(String path) {
+        int slash = path.indexOf('/');
+        while ( slash >= 0 ) {
+            if ( matches(path.substring(0, slash), true) ) {
+                return true;
+            }
+            slash = path.indexOf('/', slash + 1);
+        }
+        return matches(path, false);
+    }
+
+    /* false if no file below the directory can be covered, so the directory can be skipped
+    without looking inside. True does not mean that something below is covered */
+    public boolean mayCoverBelow(String dir) {
+        if ( hasUnanchored ) {
+            return true;
+        }
+        int slash = dir.indexOf('/');
+        while ( slash >= 0 ) {
+            if ( matches(dir.substring(0, slash), true) ) {
+                return true;
+            }
+            slash = dir.indexOf('/', slash + 1);
+        }
+        if ( matches(dir, true) ) {
+            return true;
+        }
+        String asDir = dir + "/";
+        for ( String prefix : anchoredPrefixes ) {
+            if ( prefix.startsWith(asDir) || asDir.startsWith(prefix) || prefix.equals(dir) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean hasWildcard(String s) {
+        return s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('[') >= 0;
+    }
+
+    /* translate a glob to a regex. ** matches across directories, * and ? stay inside one */
+    static Pattern compileGlob(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < glob.length(); i++ ) {
+            char c = glob.charAt(i);
+            if ( c == '*' ) {
+                if ( i + 1 < glob.length() && glob.charAt(i + 1) == '*' ) {
+                    i++;
+                    if ( i + 1 < glob.length() && glob.charAt(i + 1) == '/' ) {
+                        // "**/" also matches no directory at all
+                        i++;
+                        sb.append("(?:.*/)?");
+                    } else {
+                        sb.append(".*");
+                    }
+                } else {
+                    sb.append("[^/]*");
+                }
+            } else if ( c == '?' ) {
+                sb.append("[^/]");
+            } else if ( c == '[' ) {
+                int end = glob.indexOf(']', i + 1);
+                if ( end < 0 ) {
+                    sb.append("\\[");
+                } else {
+                    String set = glob.substring(i + 1, end);
+                    if ( set.startsWith("!") ) {
+                        set = "^" + set.substring(1);
+                    }
+                    sb.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                }
+            } else if ( "\\.^$+(){}|".indexOf(c) >= 0 ) {
+                sb.append('\\').append(c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+/*Dictionary of every path the repository has stored, shared by all trees and manifests. A
+path gets an int id when it is first seen and keeps it, the table is only appended to. The
+paths are front coded in blocks of BLOCK: each one is saved as the length of the prefix it
+shares with the one before and the rest of its bytes, and the first one of a block is saved
+whole so a path can be decoded without reading the whole table. The same bytes are appended
+to .gitlet/paths*/
+
+public class PathTable {
+    static final String PATH_FILE = Gitlet.GITLET_DIR + "paths";
+    private static final int BLOCK = 16;
+
+    private static byte[] data = new byte[1 << 12];
+    private static int length = 0; // bytes used in data
+    private static int saved = 0; // bytes of data already in the file
+    private static int count = 0;
+    private static int[] blockStart = new int[16];
+    private static int[] hashes = new int[16];
+    // open addressing table of id + 1, sized to a power of two at least twice count
+    private static int[] slots = new int[32];
+    private static boolean loaded = false;
+    // the last decoded path, reused by the next decode
+    private static byte[] scratch = new byte[256];
+    private static final int[] read = new int[1];
+
+    /* the id of the path, added to the table if it is new */
+    public static synchronized int id(String path) {
+        load();
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int found = lookup(bytes);
+        if ( found >= 0 ) {
+            return found;
+        }
+        append(bytes);
+        return count - 1;
+    }
+
+    /* the id of the path, or -1 if the table does not have it */
+    public static synchronized int find(String path) {
+        load();
+        return lookup(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static synchronized String path(int id) {
+        load();
+        int len = decode(id);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /* append the paths added since the last save to the file */
+    public static synchronized void save() throws IOException {
+        if ( saved == length ) {
+            return;
+        }
+        File file = Gitlet.store(PATH_FILE);
+        Files.createDirectories(file.getParentFile().toPath());
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(data, saved, length - saved);
+        }
+        saved = length;
+    }
+
+    /* forget the table, so it is read again from the repository of the next command */
+    static synchronized void clear() {
+        data = new byte[1 << 12];
+        length = 0;
+        saved = 0;
+        count = 0;
+        slots = new int[32];
+        loaded = false;
+    }
+
+    private static void load() {
+        if ( loaded ) {
+            return;
+        }
+        loaded = true;
+        File file = Gitlet.store(PATH_FILE);
+        if ( !file.exists() ) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read <" + PATH_FILE + ">", e);
+        }
+        // replay the entries, which rebuilds the block starts and the hash table
+        int pos = 0;
+        int prevLen = 0;
+        while ( pos < bytes.length ) {
+            int start = pos;
+            pos = readVarint(bytes, pos, read);
+            int shared = read[0];
+            pos = readVarint(bytes, pos, read);
+            int rest = read[0];
+            if ( pos + rest > bytes.length || shared > prevLen ) {
+                // a write that did not finish, the entries before it are fine
+                break;
+            }
+            ensureScratch(shared + rest);
+            System.arraycopy(bytes, pos, scratch, shared, rest);
+            pos += rest;
+            prevLen = shared + rest;
+            addEntry(bytes, start, pos - start, hash(scratch, prevLen));
+        }
+        if ( length < bytes.length ) {
+            // drop the unfinished entry, or the next ones would be appended after it
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot repair <" + PATH_FILE + ">", e);
+            }
+        }
+        saved = length;
+    }
+
+    private static int lookup(byte[] bytes) {
+        int h = hash(bytes, bytes.length);
+        int mask = slots.length - 1;
+        for ( int i = h & mask; slots[i] != 0; i = (i + 1) & mask ) {
+            int id = slots[i] - 1;
+            if ( hashes[id] == h ) {
+                int len = decode(id);
+                if ( len == bytes.length && equal(scratch, bytes, len) ) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void append(byte[] bytes) {
+        int shared = 0;
+        if ( count % BLOCK != 0 ) {
+            int prevLen = decode(count - 1);
+            int max = Math.min(prevLen, bytes.length);
+            while ( shared < max && scratch[shared] == bytes[shared] ) {
+                shared++;
+            }
+        }
+        byte[] entry = new byte[10 + bytes.length - shared];
+        int pos = writeVarint(entry, 0, shared);
+        pos = writeVarint(entry, pos, bytes.length - shared);
+        System.arraycopy(bytes, shared, entry, pos, bytes.length - shared);
+        addEntry(entry, 0, pos + bytes.length - shared, hash(bytes, bytes.length));
+    }
+
+    private static void addEntry(byte[] src, int from, int len, int h) {
+        if ( length + len > data.length ) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + len));
+        }
+        if ( count % BLOCK == 0 ) {
+            if ( count / BLOCK >= blockStart.length ) {
+                blockStart = Arrays.copyOf(blockStart, blockStart.length * 2);
+            }
+            blockStart[count / BLOCK] = length;
+        }
+        System.arraycopy(src, from, data, length, len);
+        length += len;
+        if ( count >= hashes.length ) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        hashes[count] = h;
+        count++;
+        if ( count * 2 > slots.length ) {
+            slots = new int[slots.length * 2];
+            for ( int id = 0; id < count; id++ ) {
+                insert(id);
+            }
+        } else {
+            insert(count - 1);
+        }
+    }
+
+    private static void insert(int id) {
+        int mask = slots.length - 1;
+        int i = hashes[id] & mask;
+        while ( slots[i] != 0 ) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    /* decode the path into scratch, starting from its block, and return its length */
+    private static int decode(int id) {
+        int pos = blockStart[id / BLOCK];
+        int len = 0;
+        for ( int i = id - id % BLOCK; i <= id; i++ ) {
+            pos = readVarint(data, pos, read);
+            int shared = read[0];
+            pos = readVarint(data, pos, read);
+            int rest = read[0];
+            ensureScratch(shared + rest);
+            System.arraycopy(data, pos, scratch, shared, rest);
+            pos += rest;
+            len = shared + rest;
+        }
+        return len;
+    }
+
+    private static void ensureScratch(int len) {
+        if ( len > scratch.length ) {
+            scratch = Arrays.copyOf(scratch, Math.max(len, scratch.length * 2));
+        }
+    }
+
+    private static boolean equal(byte[] a, byte[] b, int len) {
+        for ( int i = 0; i < len; i++ ) {
+            if ( a[i] != b[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* FNV-1a over the bytes */
+    private static int hash(byte[] bytes, int len) {
+        int h = 0x811c9dc5;
+        for ( int i = 0; i < len; i++ ) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ( (value & ~0x7f) != 0 ) {
+            out[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] in, int pos, int[] value) {
+        int result = 0;
+        int shift = 0;
+        while ( pos < in.length ) {
+            byte b = in[pos++];
+            result |= (b & 0x7f) << shift;
+            if ( (b & 0x80) == 0 ) {
+                break;
+            }
+            shift += 7;
+        }
+        value[0] = result;
+        return pos;
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+/*Where HEAD and every branch used to point. Each movement is one record of RECORD bytes
+appended to .gitlet/logs/HEAD or .gitlet/logs/branches/<branch>: the commit before, the
+commit after, the time and what moved it. Since the records have a fixed width, the n-th
+latest one is read with a single seek, so HEAD@{n} and undo do not depend on the length of
+the history. Like the state, the changes of a command are kept in memory until it is saved,
+so a failed batch does not log commits that were never saved. The branch logs are in the
+shared store, but every worktree keeps the log of its own HEAD in its own .gitlet*/
+
+public class Reflog {
+    static final String LOG_DIR = Gitlet.GITLET_DIR + "logs/";
+    static final String HEAD = "HEAD";
+    // old id, new id, time, action
+    private static final int RECORD = 4 + 4 + 8 + 4;
+    private static final String[] ACTIONS = { "commit", "reset", "checkout", "branch", "undo", "bisect", "import" };
+    static final int COMMIT = 0;
+    static final int RESET = 1;
+    static final int CHECKOUT = 2;
+    static final int BRANCH = 3;
+    static final int UNDO = 4;
+    static final int BISECT = 5;
+    static final int IMPORT = 6;
+
+    /* one movement of a ref. oldId is -1 when the ref did not exist before */
+    public static class Entry {
+        final int oldId;
+        final int newId;
+        final long time;
+        final int action;
+
+        Entry(int oldId, int newId, long time, int action) {
+            this.oldId = oldId;
+            this.newId = newId;
+            this.time = time;
+            this.action = action;
+        }
+
+        String action() {
+            return action >= 0 && action < ACTIONS.length ? ACTIONS[action] : "unknown";
+        }
+    }
+
+    // records not saved yet, by ref
+    private static TreeMap<String, ArrayList<Entry>> pending = new TreeMap<String, ArrayList<Entry>>();
+    // refs whose saved log is to be deleted
+    private static TreeSet<String> dropped = new TreeSet<String>();
+    // the new ids of the commits after a gc, for the saved records. null when gc did not run
+    private static int[] newIds;
+    // the folders of the linked worktrees, whose HEAD logs gc reads and rewrites as well
+    private static ArrayList<File> worktrees = new ArrayList<File>();
+
+    /* log a movement of HEAD, or of a branch */
+    public static void append(String ref, int oldId, int newId, int action) {
+        ArrayList<Entry> entries = pending.get(ref);
+        if ( entries == null ) {
+            entries = new ArrayList<Entry>();
+            pending.put(ref, entries);
+        }
+        entries.add(new Entry(oldId, newId, System.currentTimeMillis(), action));
+    }
+
+    /* the n-th latest movement of the ref, 0 being the last one, or null */
+    public static Entry get(String ref, int n) {
+        ArrayList<Entry> entries = pending.get(ref);
+        int waiting = entries == null ? 0 : entries.size();
+        if ( n < 0 ) {
+            return null;
+        }
+        if ( n < waiting ) {
+            return entries.get(waiting - 1 - n);
+        }
+        File file = file(ref);
+        if ( dropped.contains(ref) ) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long index = in.length() / RECORD - 1 - (n - waiting);
+            if ( index < 0 ) {
+                return null;
+            }
+            byte[] record = new byte[RECORD];
+            in.seek(index * RECORD);
+            in.readFully(record);
+            return remap(decode(ByteBuffer.wrap(record)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* the number of movements of the ref */
+    public static int size(String ref) {
+        ArrayList<Entry> entries = pending.get(ref);
+        long saved = dropped.contains(ref) ? 0 : file(ref).length() / RECORD;
+        return (int) saved + (entries == null ? 0 : entries.size());
+    }
+
+    /* append the records of the command to the files. Called after the state is saved */
+    public static void save() throws IOException {
+        for ( String ref : dropped ) {
+            file(ref).delete();
+        }
+        dropped.clear();
+        if ( newIds != null ) {
+            for ( File file : files() ) {
+                rewrite(file);
+            }
+            newIds = null;
+        }
+        for ( Map.Entry<String, ArrayList<Entry>> e : pending.entrySet() ) {
+            File file = file(e.getKey());
+            Files.createDirectories(file.getParentFile().toPath());
+            trim(file);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD * e.getValue().size());
+            for ( Entry entry : e.getValue() ) {
+                encode(buffer, entry);
+            }
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                out.write(buffer.array());
+            }
+        }
+        pending.clear();
+    }
+
+    /* forget the records that were not saved */
+    static void clear() {
+        pending.clear();
+        dropped.clear();
+        newIds = null;
+        worktrees.clear();
+    }
+
+    /* the linked worktrees, for gc in the main one */
+    public static void linkWorktrees(List<File> folders) {
+        worktrees = new ArrayList<File>(folders);
+    }
+
+    /* drop the log of a removed branch */
+    public static void remove(String branch) {
+        pending.remove(branch);
+        dropped.add(branch);
+    }
+
+    /* the commits the records younger than the given time refer to */
+    public static ArrayList<Integer> since(long time) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for ( File file : files() ) {
+            if ( !dropped.contains(ref(file)) ) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                while ( buffer.remaining() >= RECORD ) {
+                    entries.add(remap(decode(buffer)));
+                }
+            }
+        }
+        for ( ArrayList<Entry> waiting : pending.values() ) {
+            entries.addAll(waiting);
+        }
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for ( Entry entry : entries ) {
+            if ( entry.time > time ) {
+                ids.add(entry.oldId);
+                ids.add(entry.newId);
+            }
+        }
+        return ids;
+    }
+
+    /* gc renumbered the commits, newIds holds -1 for a removed commit. The saved records are
+    rewritten with the next save */
+    public static void remap(int[] ids) {
+        for ( ArrayList<Entry> entries : pending.values() ) {
+            for ( int i = 0; i < entries.size(); i++ ) {
+                Entry entry = entries.get(i);
+                entries.set(i, new Entry(remap(ids, entry.oldId), remap(ids, entry.newId),
+                    entry.time, entry.action));
+            }
+        }
+        if ( newIds == null ) {
+            newIds = ids;
+        } else {
+            int[] both = new int[newIds.length];
+            for ( int i = 0; i < both.length; i++ ) {
+                both[i] = remap(ids, newIds[i]);
+            }
+            newIds = both;
+        }
+    }
+
+    private static Entry remap(Entry entry) {
+        if ( newIds == null ) {
+            return entry;
+        }
+        return new Entry(remap(newIds, entry.oldId), remap(newIds, entry.newId), entry.time, entry.action);
+    }
+
+    private static int remap(int[] ids, int id) {
+        return id < 0 || id >= ids.length ? -1 : ids[id];
+    }
+
+    private static void rewrite(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        ByteBuffer out = ByteBuffer.allocate(buffer.remaining() / RECORD * RECORD);
+        while ( buffer.remaining() >= RECORD ) {
+            encode(out, remap(decode(buffer)));
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), out.array());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String ref(File file) {
+        String path = file.getPath().replace(File.separatorChar, '/');
+        String branches = Gitlet.store(LOG_DIR).getPath().replace(File.separatorChar, '/') + "/branches/";
+        return path.startsWith(branches) ? path.substring(branches.length()) : HEAD;
+    }
+
+    private static File file(String ref) {
+        return ref.equals(HEAD) ? new File(LOG_DIR + HEAD) : Gitlet.store(LOG_DIR + "branches/" + ref);
+    }
+
+    private static ArrayList<File> files() {
+        ArrayList<File> files = new ArrayList<File>();
+        listFiles(Gitlet.store(LOG_DIR + "branches/"), files);
+        ArrayList<File> heads = new ArrayList<File>();
+        heads.add(file(HEAD));
+        for ( File folder : worktrees ) {
+            heads.add(new File(folder, LOG_DIR + HEAD));
+        }
+        for ( File head : heads ) {
+            if ( head.isFile() ) {
+                files.add(head);
+            }
+        }
+        return files;
+    }
+
+    private static void listFiles(File dir, ArrayList<File> out) {
+        File[] children = dir.listFiles();
+        if ( children == null ) {
+            return;
+        }
+        for ( File child : children ) {
+            if ( child.isDirectory() ) {
+                listFiles(child, out);
+            } else if ( !child.getName().endsWith(".tmp") ) {
+                out.add(child);
+            }
+        }
+    }
+
+    /* cut off the end of a record that was not written completely, or the records appended
+    after it would not line up */
+    private static void trim(File file) throws IOException {
+        long length = file.length();
+        if ( length % RECORD != 0 ) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(length - length % RECORD);
+            }
+        }
+    }
+
+    private static void encode(ByteBuffer out, Entry entry) {
+        out.putInt(entry.oldId);
+        out.putInt(entry.newId);
+        out.putLong(entry.time);
+        out.putInt(entry.action);
+    }
+
+    private static Entry decode(ByteBuffer in) {
+        int oldId = in.getInt();
+        int newId = in.getInt();
+        long time = in.getLong();
+        int action = in.getInt();
+        return new Entry(oldId, newId, time, action);
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+/*Tree object of one directory. A tree is saved under .gitlet/trees/<hash>, so a directory
+that did not change between two commits is the same object in both of them*/
+
+public class Tree implements Serializable {
+    // the one the class had before it was declared, so the saved trees can still be read
+    private static final long serialVersionUID = 5050595430112992338L;
+    static final String TREE_DIR = ".gitlet/trees/";
+    // hash of the tree without any entry, used by the initial commit
+    static final String EMPTY = new Tree().hash();
+    // trees are immutable once saved, so the ones already read can be kept for the whole run
+    private static final HashMap<String, Tree> loaded = new HashMap<String, Tree>();
+
+    TreeMap<String, String> files; // key: file name value: SHA-1 of the content
+    TreeMap<String, int[]> stored; // key: file name value: stored copy, see location()
+    TreeMap<String, String> dirs; // key: directory name value: hash of the sub tree
+
+    public Tree() {
+        this.files = new TreeMap<String, String>();
+        this.stored = new TreeMap<String, int[]>();
+        this.dirs = new TreeMap<String, String>();
+    }
+
+    public Tree(Tree t) {
+        this.files = new TreeMap<String, String>(t.files);
+        this.stored = new TreeMap<String, int[]>(t.stored);
+        this.dirs = new TreeMap<String, String>(t.dirs);
+    }
+
+    /* the stored copy of a file is .gitlet/<folder>/<path>, plus the chunk list suffix when it
+    is saved as chunks. Trees keep it as {path id in the PathTable, folder * 2 + 1 if chunked},
+    so the path string is not repeated in every tree that holds the file. The path can differ
+    from where the file is now, since a tree can be shared by two directories with the same
+    content */
+    static int[] ref(String location) {
+        int slash = location.indexOf('/', Gitlet.GITLET_DIR.length());
+        int folder = Integer.parseInt(location.substring(Gitlet.GITLET_DIR.length(), slash));
+        String path = location.substring(slash + 1);
+        boolean chunked = path.endsWith(ChunkStore.CHUNKED_SUFFIX) && ChunkStore.isChunked(location);
+        if ( chunked ) {
+            path = path.substring(0, path.length() - ChunkStore.CHUNKED_SUFFIX.length());
+        }
+        return new int[] { PathTable.id(path), folder * 2 + (chunked ? 1 : 0) };
+    }
+
+    static String location(int[] ref) {
+        return Gitlet.GITLET_DIR + (ref[1] >> 1) + "/" + PathTable.path(ref[0])
+            + ((ref[1] & 1) != 0 ? ChunkStore.CHUNKED_SUFFIX : "");
+    }
+
+    /* one path that differs between two trees. before / after are {hash, location},
+    or null when the path does not exist on that side */
+    public static class Change {
+        String path;
+        String[] before;
+        String[] after;
+
+        Change(String path, String[] before, String[] after) {
+            this.path = path;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /* the hash only covers names and content hashes. Two trees with the same content are
+    interchangeable even if their files are stored at different locations */
+    public String hash() {
+        MessageDigest digest = Gitlet.newDigest();
+        for ( Map.Entry<String, String> e : files.entrySet() ) {
+            digest.update(("f " + e.getKey() + " " + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        for ( Map.Entry<String, String> e : dirs.entrySet() ) {
+            digest.update(("d " + e.getKey() + " " + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return Gitlet.toHex(digest.digest());
+    }
+
+    public static Tree load(String hash) {
+        if ( hash == null || hash.equals(EMPTY) ) {
+            return new Tree();
+        }
+        synchronized (loaded) {
+            Tree t = loaded.get(hash);
+            if ( t != null ) {
+                return t;
+            }
+        }
+        File file = Gitlet.store(TREE_DIR + hash);
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            Tree t = (Tree) in.readObject();
+            synchronized (loaded) {
+                loaded.put(hash, t);
+            }
+            return t;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot read the tree <" + hash + ">", e);
+        }
+    }
+
+    /* write the tree unless a tree with the same hash already exists, and return its hash */
+    public String save() {
+        String hash = hash();
+        if ( hash.equals(EMPTY) ) {
+            return hash;
+        }
+        File file = Gitlet.store(TREE_DIR + hash);
+        if ( !file.exists() ) {
+            try {
+                // the paths the tree refers to are saved first
+                PathTable.save();
+                Files.createDirectories(file.getParentFile().toPath());
+                File tmp = Gitlet.store(TREE_DIR + hash + ".tmp");
+                try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
+                    out.writeObject(this);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot save the tree <" + hash + ">", e);
+            }
+        }
+        synchronized (loaded) {
+            loaded.put(hash, this);
+        }
+        return hash;
+    }
+
+    /* add the hashes of the tree and all its sub trees to trees, and the locations of all
+    their files to locations. Sub trees that are already in trees are not read again */
+    public static void collect(String treeHash, HashSet<String> trees, HashSet<String> locations) {
+        if ( treeHash == null || treeHash.equals(EMPTY) || !trees.add(treeHash) ) {
+            return;
+        }
+        Tree t = load(treeHash);
+        for ( int[] ref : t.stored.values() ) {
+            locations.add(location(ref));
+        }
+        for ( String sub : t.dirs.values() ) {
+            collect(sub, trees, locations);
+        }
+    }
+
+    /* move the stored copies of a saved tree to new folders, newIds[old folder] is the new
+    one. The hash does not cover them, so the tree keeps its hash and is written over the old
+    file */
+    public static void relocate(String treeHash, int[] newIds) {
+        Tree t = new Tree(load(treeHash));
+        boolean changed = false;
+        for ( Map.Entry<String, int[]> e : t.stored.entrySet() ) {
+            int[] ref = e.getValue();
+            int folder = ref[1] >> 1;
+            if ( folder < newIds.length && newIds[folder] != folder ) {
+                e.setValue(new int[] { ref[0], newIds[folder] * 2 + (ref[1] & 1) });
+                changed = true;
+            }
+        }
+        if ( changed ) {
+            File file = Gitlet.store(TREE_DIR + treeHash);
+            File tmp = Gitlet.store(TREE_DIR + treeHash + ".tmp");
+            try {
+                try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
+                    out.writeObject(t);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot save the tree <" + treeHash + ">", e);
+            }
+            synchronized (loaded) {
+                loaded.put(treeHash, t);
+            }
+        }
+    }
+
+    /* forget the trees read so far, used when the trees on disk are rewritten */
+    static void clearLoaded() {
+        synchronized (loaded) {
+            loaded.clear();
+        }
+    }
+
+    /* {hash, location} of the file at the given path, or null if there is no such file */
+    public static String[] find(String treeHash, String path) {
+        Tree t = load(treeHash);
+        int slash = path.indexOf('/');
+        while ( slash >= 0 ) {
+            String sub = t.dirs.get(path.substring(0, slash));
+            if ( sub == null ) {
+                return null;
+            }
+            t = load(sub);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        if ( !t.files.containsKey(path) ) {
+            return null;
+        }
+        return new String[] { t.files.get(path), location(t.stored.get(path)) };
+    }
+
+    /* the content hash of the file, or the tree hash of the directory, at the given path.
+    Null if there is nothing at that path */
+    public static String hashAt(String treeHash, String path) {
+        Tree t = load(treeHash);
+        String rest = path;
+        int slash = rest.indexOf('/');
+        while ( slash >= 0 ) {
+            String sub = t.dirs.get(rest.substring(0, slash));
+            if ( sub == null ) {
+                return null;
+            }
+            t = load(sub);
+            rest = rest.substring(slash + 1);
+            slash = rest.indexOf('/');
+        }
+        if ( t.files.containsKey(rest) ) {
+            return t.files.get(rest);
+        }
+        return t.dirs.get(rest);
+    }
+
+    /* apply the changes to the given tree and return the hash of the new tree. Keys of changes
+    are paths relative to the tree, values are {hash, location} or null to remove the path.
+    Only the directories on the changed paths are rewritten, all the other sub trees are kept
+    by hash */
+    public static String update(String treeHash, SortedMap<String, String[]> changes) {
+        TreeMap<String, Object[]> refs = new TreeMap<String, Object[]>();
+        for ( Map.Entry<String, String[]> e : changes.entrySet() ) {
+            String[] v = e.getValue();
+            refs.put(e.getKey(), v == null ? null : new Object[] { v[0], ref(v[1]) });
+        }
+        return updateRefs(treeHash, refs);
+    }
+
+    // values are {hash, stored copy}
+    private static String updateRefs(String treeHash, SortedMap<String, Object[]> changes) {
+        Tree t = new Tree(load(treeHash));
+        TreeMap<String, TreeMap<String, Object[]>> byDir = new TreeMap<String, TreeMap<String, Object[]>>();
+        for ( Map.Entry<String, Object[]> e : changes.entrySet() ) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if ( slash < 0 ) {
+                if ( e.getValue() == null ) {
+                    t.files.remove(path);
+                    t.stored.remove(path);
+                } else {
+                    t.files.put(path, (String) e.getValue()[0]);
+                    t.stored.put(path, (int[]) e.getValue()[1]);
+                }
+            } else {
+                String dir = path.substring(0, slash);
+                if ( !byDir.containsKey(dir) ) {
+                    byDir.put(dir, new TreeMap<String, Object[]>());
+                }
+                byDir.get(dir).put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for ( Map.Entry<String, TreeMap<String, Object[]>> e : byDir.entrySet() ) {
+            String sub = updateRefs(t.dirs.get(e.getKey()), e.getValue());
+            if ( sub.equals(EMPTY) ) {
+                t.dirs.remove(e.getKey());
+            } else {
+                t.dirs.put(e.getKey(), sub);
+            }
+        }
+        return t.save();
+    }
+
+    /* put every file of the tree into the maps, keyed by its full path */
+    public static void flatten(String treeHash, String prefix, Map<String, String> addressBook,
+            Map<String, String> hashBook) {
+        flatten(treeHash, prefix, addressBook, hashBook, null);
+    }
+
+    /* the same, but only for the files the filter covers. Directories the filter can not cover
+    are not read. A null filter covers everything */
+    public static void flatten(String treeHash, String prefix, Map<String, String> addressBook,
+            Map<String, String> hashBook, PathFilter filter) {
+        Tree t = load(treeHash);
+        for ( Map.Entry<String, String> e : t.files.entrySet() ) {
+            String path = child(prefix, e.getKey());
+            if ( filter == null || filter.covers(path) ) {
+                addressBook.put(path, location(t.stored.get(e.getKey())));
+                hashBook.put(path, e.getValue());
+            }
+        }
+        for ( Map.Entry<String, String> e : t.dirs.entrySet() ) {
+            String path = child(prefix, e.getKey());
+            if ( filter == null || filter.mayCoverBelow(path) ) {
+                flatten(e.getValue(), path, addressBook, hashBook, filter);
+            }
+        }
+    }
+
+    /* gets the paths that differ between two trees, one at a time */
+    public interface Visitor {
+        void visit(Change c);
+    }
+
+    /* gets the paths that differ between any of three trees. Each side is {hash, location},
+    or null when the path does not exist there */
+    public interface Visitor3 {
+        void visit(String path, String[] base, String[] ours, String[] theirs);
+    }
+
+    /* all the paths that differ between the two trees, in path order. Sub trees with the
+    same hash are skipped without being read */
+    public static ArrayList<Change> diff(String oldHash, String newHash) {
+        return diff(oldHash, newHash, null);
+    }
+
+    /* the same, but only for the paths the filter covers. A null filter covers everything */
+    public static ArrayList<Change> diff(String oldHash, String newHash, PathFilter filter) {
+        final ArrayList<Change> changes = new ArrayList<Change>();
+        diff(oldHash, newHash, filter, new Visitor() {
+            public void visit(Change c) {
+                changes.add(c);
+            }
+        });
+        return changes;
+    }
+
+    /* the same, but each change is handed to the visitor as soon as it is found, so nothing
+    grows with the number of paths */
+    public static void diff(String oldHash, String newHash, PathFilter filter, Visitor visitor) {
+        diff(oldHash, newHash, null, filter, visitor);
+    }
+
+    private static void diff(String oldHash, String newHash, String prefix, PathFilter filter, Visitor out) {
+        if ( oldHash != null && oldHash.equals(newHash) ) {
+            return;
+        }
+        Tree a = load(oldHash);
+        Tree b = load(newHash);
+        Names names = new Names(a, b);
+        for ( String name = names.next(); name != null; name = names.next() ) {
+            String path = child(prefix, name);
+            String oldFile = a.files.get(name);
+            String newFile = b.files.get(name);
+            if ( !sameHash(oldFile, newFile) && (filter == null || filter.covers(path)) ) {
+                out.visit(new Change(path, entry(a, name), entry(b, name)));
+            }
+            String oldDir = a.dirs.get(name);
+            String newDir = b.dirs.get(name);
+            if ( (oldDir != null || newDir != null) && (filter == null || filter.mayCoverBelow(path)) ) {
+                diff(oldDir == null ? EMPTY : oldDir, newDir == null ? EMPTY : newDir, path, filter, out);
+            }
+        }
+    }
+
+    /* walk the three trees together, in path order, and give the visitor every path whose
+    file is not the same in all three. Sub trees with the same hash on all three sides are
+    skipped without being read */
+    public static void diff3(String baseHash, String oursHash, String theirsHash, Visitor3 visitor) {
+        diff3(baseHash == null ? EMPTY : baseHash, oursHash == null ? EMPTY : oursHash,
+            theirsHash == null ? EMPTY : theirsHash, null, visitor);
+    }
+
+    private static void diff3(String baseHash, String oursHash, String theirsHash, String prefix, Visitor3 out) {
+        if ( baseHash.equals(oursHash) && baseHash.equals(theirsHash) ) {
+            return;
+        }
+        Tree b = load(baseHash);
+        Tree o = load(oursHash);
+        Tree t = load(theirsHash);
+        Names names = new Names(b, o, t);
+        for ( String name = names.next(); name != null; name = names.next() ) {
+            String baseFile = b.files.get(name);
+            if ( !sameHash(baseFile, o.files.get(name)) || !sameHash(baseFile, t.files.get(name)) ) {
+                out.visit(child(prefix, name), entry(b, name), entry(o, name), entry(t, name));
+            }
+            String baseDir = b.dirs.get(name);
+            String oursDir = o.dirs.get(name);
+            String theirsDir = t.dirs.get(name);
+            if ( baseDir != null || oursDir != null || theirsDir != null ) {
+                diff3(baseDir == null ? EMPTY : baseDir, oursDir == null ? EMPTY : oursDir,
+                    theirsDir == null ? EMPTY : theirsDir, child(prefix, name), out);
+            }
+        }
+    }
+
+    /* {hash, location} of the file, or null */
+    private static String[] entry(Tree t, String name) {
+        String hash = t.files.get(name);
+        return hash == null ? null : new String[] { hash, location(t.stored.get(name)) };
+    }
+
+    private static boolean sameHash(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /* the names of the files and sub trees of some trees, in order and without repeats. The
+    sorted name sets are merged as they are iterated, nothing is copied */
+    private static class Names {
+        private final ArrayList<Iterator<String>> its = new ArrayList<Iterator<String>>();
+        private final String[] heads;
+
+        Names(Tree... trees) {
+            for ( Tree t : trees ) {
+                its.add(t.files.keySet().iterator());
+                its.add(t.dirs.keySet().iterator());
+            }
+            heads = new String[its.size()];
+            for ( int i = 0; i < heads.length; i++ ) {
+                heads[i] = its.get(i).hasNext() ? its.get(i).next() : null;
+            }
+        }
+
+        /* the next name, or null after the last one */
+        String next() {
+            String min = null;
+            for ( String head : heads ) {
+                if ( head != null && (min == null || head.compareTo(min) < 0) ) {
+                    min = head;
+                }
+            }
+            if ( min != null ) {
+                for ( int i = 0; i < heads.length; i++ ) {
+                    if ( min.equals(heads[i]) ) {
+                        heads[i] = its.get(i).hasNext() ? its.get(i).next() : null;
+                    }
+                }
+            }
+            return min;
+        }
+    }
+
+    private static String child(String prefix, String name) {
+        return prefix == null ? name : prefix + "/" + name;
+    }
+}